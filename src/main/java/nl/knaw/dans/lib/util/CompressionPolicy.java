@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+/**
+ * Decides per file whether it is worth compressing when it is added to a ZIP file. Files that are not compressed are stored as is, which saves the CPU time of deflating data that does not get
+ * smaller, such as images, video and other archives.
+ */
+@FunctionalInterface
+public interface CompressionPolicy {
+
+    /**
+     * Extensions of file formats that are already compressed, so that deflating them gains little or nothing.
+     */
+    Set<String> COMPRESSED_FORMAT_EXTENSIONS = Set.of(
+        "7z", "aac", "avi", "bz2", "docx", "epub", "flac", "gif", "gz", "heic", "jar", "jp2", "jpeg", "jpg", "m4a", "m4v", "mkv", "mov", "mp3", "mp4", "mpeg", "mpg", "odp", "ods", "odt",
+        "ogg", "opus", "png", "pptx", "rar", "tgz", "webm", "webp", "xlsx", "xz", "zip", "zst");
+
+    /**
+     * Returns whether the file should be compressed.
+     *
+     * @param file the file to be added to the ZIP file
+     * @param size the size of the file in bytes
+     * @return true if the file should be compressed, false if it should be stored as is
+     * @throws IOException if the file could not be read
+     */
+    boolean shouldCompress(Path file, long size) throws IOException;
+
+    /**
+     * Returns a policy that compresses a file only if both this policy and <code>other</code> would compress it. This policy is evaluated first, so cheap policies should come first.
+     *
+     * @param other the other policy
+     * @return the combined policy
+     */
+    default CompressionPolicy and(@NonNull CompressionPolicy other) {
+        return (file, size) -> shouldCompress(file, size) && other.shouldCompress(file, size);
+    }
+
+    /**
+     * @return a policy that compresses every file
+     */
+    static CompressionPolicy always() {
+        return (file, size) -> true;
+    }
+
+    /**
+     * @return a policy that compresses no file
+     */
+    static CompressionPolicy never() {
+        return (file, size) -> false;
+    }
+
+    /**
+     * Returns a policy that does not compress files with one of the given extensions. The comparison is case-insensitive.
+     *
+     * @param extensions the extensions, without the dot
+     * @return the policy
+     */
+    static CompressionPolicy skipExtensions(@NonNull Set<String> extensions) {
+        var lowerCaseExtensions = extensions.stream().map(extension -> extension.toLowerCase(Locale.ROOT)).collect(Collectors.toUnmodifiableSet());
+        return (file, size) -> !lowerCaseExtensions.contains(getExtension(file));
+    }
+
+    /**
+     * Returns a policy that does not compress files smaller than <code>minSize</code> bytes. For very small files the overhead of the deflate format outweighs the gain.
+     *
+     * @param minSize the minimum size of a file to compress
+     * @return the policy
+     */
+    static CompressionPolicy minimumSize(long minSize) {
+        return (file, size) -> size >= minSize;
+    }
+
+    /**
+     * Returns a policy that deflates the first <code>sampleSize</code> bytes of a file at the fastest level and compresses the file only if the sample shrinks to at most <code>maxRatio</code> of its
+     * original size. This costs one extra read of the first block of the file, which is usually still in the page cache when the file is zipped right after.
+     *
+     * @param sampleSize the number of bytes to probe
+     * @param maxRatio   the maximum ratio of compressed to uncompressed size of the sample for the file to be compressed, e.g. 0.9
+     * @return the policy
+     */
+    static CompressionPolicy probe(int sampleSize, double maxRatio) {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("sampleSize must be positive");
+        }
+        return (file, size) -> {
+            byte[] sample;
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                sample = inputStream.readNBytes(sampleSize);
+            }
+            if (sample.length == 0) {
+                return false;
+            }
+            return (double) deflatedSize(sample) / sample.length <= maxRatio;
+        };
+    }
+
+    /**
+     * Returns the recommended policy: files with the extension of a compressed format and files smaller than 512 bytes are stored, other files are compressed if their first 64 KiB shrink by at least
+     * 10%.
+     *
+     * @return the policy
+     */
+    static CompressionPolicy adaptive() {
+        return skipExtensions(COMPRESSED_FORMAT_EXTENSIONS)
+            .and(minimumSize(512))
+            .and(probe(64 * 1024, 0.9));
+    }
+
+    private static String getExtension(Path file) {
+        var fileName = file.getFileName() == null ? "" : file.getFileName().toString();
+        var dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static int deflatedSize(byte[] sample) {
+        var deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            var buffer = new byte[8192];
+            var size = 0;
+            while (!deflater.finished()) {
+                size += deflater.deflate(buffer);
+            }
+            return size;
+        }
+        finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * Zips a directory, including the directory entries. The entries are added depth-first, with the children of each directory in order of name, so the order of the entries does not depend on the
+ * file system.
+ * </p>
+ * <p>
+ * In reproducible mode, the modification times and permissions of the entries are normalized as well (see {@link ReproducibleZipEntries}), so that zipping the same content always produces
+ * byte-for-byte the same ZIP file, which can then be deduplicated or cached by its checksum.
+ * </p>
+ * <p>
+ * Symbolic links are followed. Links whose target does not exist are skipped with a warning; a link to one of its own ancestors makes the zipping fail with a
+ * {@link java.nio.file.FileSystemLoopException}.
+ * </p>
+ */
+@Slf4j
+@Builder
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class DirectoryZipper {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The directory to zip.
+     */
+    @NonNull
+    private final Path sourceDirectory;
+    /**
+     * Whether to put the contents of the directory in a root directory with the name of the source directory.
+     */
+    private final boolean oneRootDir;
+    /**
+     * The level to compress the files with, see {@link Deflater#setLevel(int)}.
+     */
+    @Builder.Default
+    private final int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * The strategy to compress the files with, see {@link Deflater#setStrategy(int)}.
+     */
+    @Builder.Default
+    private final int deflaterStrategy = Deflater.DEFAULT_STRATEGY;
+    /**
+     * Whether to normalize the modification times and permissions of the entries.
+     */
+    private final boolean reproducible;
+
+    /**
+     * Zips the directory to a file.
+     *
+     * @param targetZipFile the ZIP file to create
+     * @throws IOException if an I/O error occurs
+     */
+    public void zipTo(@NonNull Path targetZipFile) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(targetZipFile)) {
+            zipTo(outputStream);
+        }
+    }
+
+    /**
+     * Zips the directory to an output stream, e.g. the body of an HTTP request, without creating a temporary file. The output stream is flushed, but not closed.
+     *
+     * @param outputStream the output stream to write the ZIP file to
+     * @throws IOException if an I/O error occurs
+     */
+    public void zipTo(@NonNull OutputStream outputStream) throws IOException {
+        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(CloseShieldOutputStream.wrap(outputStream), BUFFER_SIZE);
+        try (TunableZipArchiveOutputStream zipArchiveOutputStream = new TunableZipArchiveOutputStream(bufferedOutputStream)) {
+            zipArchiveOutputStream.setCompression(compressionLevel, deflaterStrategy);
+            String base = "";
+            if (oneRootDir) {
+                base = sourceDirectory.getFileName().toString() + "/";
+                addEntry(zipArchiveOutputStream, base, Files.readAttributes(sourceDirectory, BasicFileAttributes.class), null);
+            }
+            // Iterative depth-first walk, so that deeply nested directories cannot overflow the stack. Only the pending siblings of the directories on the current path are kept in memory. The
+            // children of each directory are visited in order of name, so that the order of the entries does not depend on the file system.
+            Deque<PathToZip> pending = new ArrayDeque<>();
+            Ancestor root = new Ancestor(sourceDirectory, Files.readAttributes(sourceDirectory, BasicFileAttributes.class).fileKey(), null);
+            pushChildren(pending, root, base);
+            while (!pending.isEmpty()) {
+                PathToZip pathToZip = pending.pop();
+                if (pathToZip.getAttributes().isDirectory()) {
+                    // symbolic links are followed, so a link to one of its own ancestors would make the walk go on forever
+                    checkForLoop(pathToZip);
+                    String entryName = pathToZip.getEntryName() + "/";
+                    addEntry(zipArchiveOutputStream, entryName, pathToZip.getAttributes(), null);
+                    pushChildren(pending, new Ancestor(pathToZip.getPath(), pathToZip.getAttributes().fileKey(), pathToZip.getParent()), entryName);
+                }
+                else if (pathToZip.getAttributes().isRegularFile()) {
+                    addEntry(zipArchiveOutputStream, pathToZip.getEntryName(), pathToZip.getAttributes(), pathToZip.getPath());
+                }
+            }
+        }
+        outputStream.flush();
+    }
+
+    @Value
+    private static class PathToZip {
+        Path path;
+        String entryName;
+        BasicFileAttributes attributes;
+        Ancestor parent;
+    }
+
+    // a directory on the path from the source directory to the path being zipped
+    @Value
+    private static class Ancestor {
+        Path directory;
+        Object fileKey;
+        Ancestor parent;
+    }
+
+    private static void pushChildren(Deque<PathToZip> pending, Ancestor directory, String base) throws IOException {
+        List<PathToZip> children = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory.getDirectory())) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attributes = readAttributes(path);
+                if (attributes != null) {
+                    children.add(new PathToZip(path, base + name, attributes, directory));
+                }
+            }
+        }
+        children.sort(Comparator.comparing(PathToZip::getEntryName));
+        for (int i = children.size() - 1; i >= 0; i--) {
+            pending.push(children.get(i));
+        }
+    }
+
+    // returns null for a symbolic link whose target does not exist
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            if (!Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isSymbolicLink()) {
+                throw e;
+            }
+            log.warn("Skipping symbolic link {}, because its target does not exist", path);
+            return null;
+        }
+    }
+
+    // the same check as Files.walkFileTree makes when following links: compare file keys, or, where the file system has none, the files themselves
+    private static void checkForLoop(PathToZip directory) throws IOException {
+        Object fileKey = directory.getAttributes().fileKey();
+        for (Ancestor ancestor = directory.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            boolean same = fileKey != null && ancestor.getFileKey() != null ? fileKey.equals(ancestor.getFileKey()) : Files.isSameFile(directory.getPath(), ancestor.getDirectory());
+            if (same) {
+                throw new FileSystemLoopException(directory.getPath().toString());
+            }
+        }
+    }
+
+    private void addEntry(ZipArchiveOutputStream zipArchiveOutputStream, String entryName, BasicFileAttributes attributes, Path file) throws IOException {
+        ZipArchiveEntry zipArchiveEntry = new ZipArchiveEntry(entryName);
+        if (reproducible) {
+            ReproducibleZipEntries.normalize(zipArchiveEntry);
+        }
+        else {
+            zipArchiveEntry.setLastModifiedTime(attributes.lastModifiedTime());
+        }
+        if (file != null) {
+            zipArchiveEntry.setSize(attributes.size());
+        }
+        zipArchiveOutputStream.putArchiveEntry(zipArchiveEntry);
+        if (file != null) {
+            try (InputStream fileInputStream = Files.newInputStream(file)) {
+                IOUtils.copy(fileInputStream, zipArchiveOutputStream);
+            }
+        }
+        zipArchiveOutputStream.closeArchiveEntry();
+    }
+}
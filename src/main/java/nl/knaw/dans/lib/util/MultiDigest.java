@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A set of message digests that are updated together, so that a stream of data can be hashed with several algorithms in one pass.
+ */
+final class MultiDigest {
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+    MultiDigest(Collection<String> algorithms) {
+        for (String algorithm : algorithms) {
+            try {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+            }
+        }
+    }
+
+    /**
+     * @param inputStream the input stream to wrap
+     * @return an input stream that updates the digests with the bytes read from it, or the input stream itself if there are no digests
+     */
+    InputStream wrap(InputStream inputStream) {
+        for (MessageDigest digest : digests.values()) {
+            inputStream = new DigestInputStream(inputStream, digest);
+        }
+        return inputStream;
+    }
+
+    /**
+     * @param outputStream the output stream to wrap
+     * @return an output stream that updates the digests with the bytes written to it, or the output stream itself if there are no digests
+     */
+    OutputStream wrap(OutputStream outputStream) {
+        for (MessageDigest digest : digests.values()) {
+            outputStream = new DigestOutputStream(outputStream, digest);
+        }
+        return outputStream;
+    }
+
+    /**
+     * Completes the digests. After this, the digests are reset.
+     *
+     * @return a map of algorithms to hexadecimal digests, in the order in which the algorithms were given
+     */
+    Map<String, String> toHex() {
+        Map<String, String> result = new LinkedHashMap<>();
+        digests.forEach((algorithm, digest) -> result.put(algorithm, HexFormat.of().formatHex(digest.digest())));
+        return Collections.unmodifiableMap(result);
+    }
+}
@@ -19,27 +19,64 @@ import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import org.apache.commons.compress.archivers.zip.DefaultBackingStoreSupplier;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
  * Zips files from an iterator of paths into a zip file up to a maximum number of files and bytes (the first limit reached). The resulting ZIP file can be compressed or not. The files in the ZIP file
  * can be renamed. The ZIP file can be overwritten if it already exists. Note that directory entries are not included in the ZIP file, as this is not formally required by the ZIP file format.
+ * <p>
+ * If an executor service is provided, the files are compressed concurrently on the threads of that executor service, using a {@link ParallelScatterZipCreator}. The files are still selected from the
+ * source iterator on the calling thread, so the limits and the rename map are applied in the same way as in sequential mode, but the order of the entries in the ZIP file is not defined.
+ * </p>
+ * <p>
+ * Instead of to a file, the ZIP file can also be streamed to an output stream or channel with {@link #zipTo(OutputStream)}.
+ * </p>
+ * <p>
+ * A {@link CompressionPolicy} can be set to decide per file whether it is compressed, so that files that are already compressed are stored as is.
+ * </p>
+ * <p>
+ * Digests of the files and of the ZIP file itself can be computed while zipping, so that neither has to be read again, e.g. to create a manifest or to verify an upload. They are returned by
+ * {@link #zipWithResult()} and {@link #zipTo(OutputStream)}.
+ * </p>
  */
 @Builder
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public class PathIteratorZipper {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * The root directory of the files to zip.
      */
@@ -51,9 +88,8 @@ public class PathIteratorZipper {
     @NonNull
     private final Iterator<Path> sourceIterator;
     /**
-     * The path to the target zip file.
+     * The path to the target zip file. Only required for {@link #zip()}.
      */
-    @NonNull
     private final Path targetZipFile;
     /**
      * Whether to overwrite the target zip file if it already exists.
@@ -61,17 +97,29 @@ public class PathIteratorZipper {
     @Builder.Default
     private final boolean overwrite = true;
     /**
-     * Whether to compress the files in the target zip file.
+     * Whether to compress the files in the target zip file. If false, the files are stored as is.
+     */
+    @Builder.Default
+    private final boolean compress = true;
+    /**
+     * The level to compress the files with, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    @Builder.Default
+    private final int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * The strategy to compress the files with, e.g. {@link Deflater#FILTERED} or {@link Deflater#HUFFMAN_ONLY}. Only the default strategy is supported in parallel mode.
      */
     @Builder.Default
-    private final boolean compress = false;
+    private final int deflaterStrategy = Deflater.DEFAULT_STRATEGY;
     /**
      * The maximum number of files to include in the target zip file.
      */
     @Builder.Default
     private final int maxNumberOfFiles = Integer.MAX_VALUE;
     /**
-     * The maximum number of bytes to include in the target zip file.
+     * The maximum number of bytes to include in the target zip file. If the source iterator is a {@link PushbackIterator}, a file that would make the zip file exceed this limit is pushed back onto
+     * the iterator, to be picked up by the next zipper, so that the limit is never exceeded (unless a single file is larger than the limit, in which case it is zipped on its own). With other iterators
+     * the limit is checked before each file is added, so the last file may make the zip file exceed the limit.
      */
     @Builder.Default
     private final long maxNumberOfBytes = 1073741824; // 1 GB
@@ -81,6 +129,32 @@ public class PathIteratorZipper {
      */
     @Builder.Default
     private final Map<String, String> renameMap = new HashMap<>();
+    /**
+     * The executor service to compress the files on. If null, the files are compressed one by one on the calling thread. The executor service is not shut down by the zipper, so it can be shared
+     * between zippers.
+     */
+    private final ExecutorService executorService;
+    /**
+     * The policy that decides per file whether it is compressed or stored. If null, the <code>compress</code> flag applies to all files.
+     */
+    private final CompressionPolicy compressionPolicy;
+    /**
+     * Whether to normalize the modification times and permissions of the entries (see {@link ReproducibleZipEntries}), so that zipping the same files in the same order always produces byte-for-byte
+     * the same ZIP file. Not supported in parallel mode, as the order of the entries is not defined there.
+     */
+    private final boolean reproducible;
+    /**
+     * The algorithms to compute a digest of each file with while it is zipped, e.g. <code>SHA-1</code> and <code>MD5</code>, so that the files need not be read again to create a manifest. See
+     * {@link ZipResult#getFileDigests()}.
+     */
+    @Builder.Default
+    private final Collection<String> fileDigestAlgorithms = List.of();
+    /**
+     * The algorithms to compute a digest of the ZIP file itself with while it is written. See {@link ZipResult#getArchiveDigests()}. Note that in {@link #zip()} this makes the ZIP file be written
+     * sequentially rather than to a seekable channel, so files that are stored rather than compressed are read twice (see {@link #zipTo(OutputStream)}).
+     */
+    @Builder.Default
+    private final Collection<String> archiveDigestAlgorithms = List.of();
 
     /**
      * Zips files from the source iterator into the target zip file.
@@ -89,6 +163,20 @@ public class PathIteratorZipper {
      * @throws IOException if the target zip file already exists and overwrite is false, or if an I/O error occurs while zipping the files.
      */
     public Path zip() throws IOException {
+        return zipWithResult().getTargetZipFile();
+    }
+
+    /**
+     * Zips files from the source iterator into the target zip file, like {@link #zip()}, and reports the number of files zipped and the configured digests.
+     *
+     * @return the result, including the path to the target zip file
+     * @throws IOException if the target zip file already exists and overwrite is false, or if an I/O error occurs while zipping the files.
+     */
+    public ZipResult zipWithResult() throws IOException {
+        if (targetZipFile == null) {
+            throw new IllegalStateException("No target zip file set");
+        }
+        checkDigestAlgorithms();
         if (overwrite && Files.exists(targetZipFile)) {
             Files.delete(targetZipFile);
         }
@@ -98,32 +186,238 @@ public class PathIteratorZipper {
             }
         }
 
-        try (OutputStream outputStream = Files.newOutputStream(targetZipFile)) {
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-            try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(bufferedOutputStream)) {
-                int numberOfFilesAdded = 0;
-                long numberOfBytesAdded = 0;
-                while (sourceIterator.hasNext() && numberOfFilesAdded < maxNumberOfFiles && numberOfBytesAdded < maxNumberOfBytes) {
-                    Path path = sourceIterator.next();
-                    if (Files.isRegularFile(path)) {
-                        try {
-                            addFileToZipStream(zipArchiveOutputStream, path);
-                            numberOfFilesAdded++;
-                            numberOfBytesAdded += Files.size(path);
-                        }
-                        catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    } else if (!Files.exists(path)) {
-                        throw new IllegalArgumentException("File to zip does not exist: " + path);
+        if (!archiveDigestAlgorithms.isEmpty()) {
+            // the seekable channel is written out of order, so the digest can only be computed while writing sequentially
+            try (OutputStream outputStream = Files.newOutputStream(targetZipFile)) {
+                ZipResult result = zipTo(outputStream);
+                return new ZipResult(targetZipFile, result.getNumberOfFiles(), result.getNumberOfBytes(), result.getFileDigests(), result.getArchiveDigests());
+            }
+        }
+        // write to a seekable channel, so that sizes and CRCs of stored entries can be filled in afterwards instead of requiring them up front
+        try (TunableZipArchiveOutputStream zipArchiveOutputStream = new TunableZipArchiveOutputStream(targetZipFile)) {
+            return zip(zipArchiveOutputStream, targetZipFile);
+        }
+    }
+
+    /**
+     * Zips files from the source iterator to an output stream, e.g. the body of an HTTP request, without creating a temporary file. The output stream is not closed, but it is flushed when the ZIP
+     * file is complete. Only a fixed-size buffer is kept in memory. Note that the CRC of files that are stored rather than compressed must be written before their data in this case, so those files
+     * are read twice. In parallel mode, the {@link ParallelScatterZipCreator} buffers the compressed entries in temporary files before writing them to the output stream.
+     *
+     * @param outputStream the output stream to write the ZIP file to
+     * @return the result, without a target zip file
+     * @throws IOException if an I/O error occurs while zipping the files
+     */
+    public ZipResult zipTo(@NonNull OutputStream outputStream) throws IOException {
+        checkDigestAlgorithms();
+        MultiDigest archiveDigest = new MultiDigest(archiveDigestAlgorithms);
+        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(archiveDigest.wrap(CloseShieldOutputStream.wrap(outputStream)), BUFFER_SIZE);
+        ZipResult result;
+        try (TunableZipArchiveOutputStream zipArchiveOutputStream = new TunableZipArchiveOutputStream(bufferedOutputStream)) {
+            result = zip(zipArchiveOutputStream, null);
+        }
+        outputStream.flush();
+        return new ZipResult(null, result.getNumberOfFiles(), result.getNumberOfBytes(), result.getFileDigests(), archiveDigest.toHex());
+    }
+
+    /**
+     * Zips files from the source iterator to a channel. The channel is not closed. See {@link #zipTo(OutputStream)}.
+     *
+     * @param channel the channel to write the ZIP file to
+     * @return the result, without a target zip file
+     * @throws IOException if an I/O error occurs while zipping the files
+     */
+    public ZipResult zipTo(@NonNull WritableByteChannel channel) throws IOException {
+        return zipTo(Channels.newOutputStream(channel));
+    }
+
+    // fails before anything is written, rather than leaving a partially written ZIP file behind
+    private void checkDigestAlgorithms() {
+        new MultiDigest(fileDigestAlgorithms);
+        new MultiDigest(archiveDigestAlgorithms);
+    }
+
+    private ZipResult zip(TunableZipArchiveOutputStream zipArchiveOutputStream, Path target) throws IOException {
+        if (executorService != null && deflaterStrategy != Deflater.DEFAULT_STRATEGY) {
+            throw new IllegalStateException("Only the default deflater strategy is supported in parallel mode");
+        }
+        if (executorService != null && reproducible) {
+            throw new IllegalStateException("Reproducible mode is not supported in parallel mode");
+        }
+        zipArchiveOutputStream.setCompression(compressionLevel, deflaterStrategy);
+        ParallelScatterZipCreator scatterZipCreator = executorService == null ? null
+            : new ParallelScatterZipCreator(new NonClosingExecutorService(executorService), new DefaultBackingStoreSupplier(null), compressionLevel);
+        int numberOfFilesAdded = 0;
+        long numberOfBytesAdded = 0;
+        Map<Path, MultiDigest> fileDigests = new LinkedHashMap<>();
+        // set when zipping fails, so that the files that were already handed to the scatter zip creator are skipped
+        AtomicBoolean aborted = new AtomicBoolean();
+        try {
+            while (sourceIterator.hasNext() && numberOfFilesAdded < maxNumberOfFiles && numberOfBytesAdded < maxNumberOfBytes) {
+                Path path = sourceIterator.next();
+                BasicFileAttributes attributes = readAttributes(path);
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                if (numberOfFilesAdded > 0 && numberOfBytesAdded + attributes.size() > maxNumberOfBytes && sourceIterator instanceof PushbackIterator<Path> pushbackIterator) {
+                    pushbackIterator.pushBack(path);
+                    break;
+                }
+                MultiDigest fileDigest = new MultiDigest(fileDigestAlgorithms);
+                fileDigests.put(path, fileDigest);
+                try {
+                    if (scatterZipCreator == null) {
+                        addFileToZipStream(zipArchiveOutputStream, path, attributes, fileDigest);
                     }
+                    else {
+                        addFileToScatterZipCreator(scatterZipCreator, path, attributes, fileDigest, aborted);
+                    }
+                    numberOfFilesAdded++;
+                    numberOfBytesAdded += attributes.size();
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
             }
-            return targetZipFile;
+        }
+        catch (RuntimeException | Error e) {
+            if (scatterZipCreator != null) {
+                discardScatterZipCreator(scatterZipCreator, aborted);
+            }
+            throw e;
+        }
+        if (scatterZipCreator != null) {
+            writeScatterZipCreator(scatterZipCreator, zipArchiveOutputStream);
+        }
+        Map<Path, Map<String, String>> fileDigestsAsHex = new LinkedHashMap<>();
+        if (!fileDigestAlgorithms.isEmpty()) {
+            fileDigests.forEach((path, fileDigest) -> fileDigestsAsHex.put(path, fileDigest.toHex()));
+        }
+        return new ZipResult(target, numberOfFilesAdded, numberOfBytesAdded, Collections.unmodifiableMap(fileDigestsAsHex), Map.of());
+    }
+
+    /**
+     * Distributes files over as few groups as possible, so that each group can be zipped by a separate zipper without exceeding <code>maxNumberOfFiles</code> and <code>maxNumberOfBytes</code>.
+     * The files are packed first-fit in order of decreasing size, which is close to optimal in practice. A file larger than <code>maxNumberOfBytes</code> gets a group of its own. Paths that are not
+     * regular files are left out.
+     *
+     * @param files            the files to distribute
+     * @param maxNumberOfFiles the maximum number of files per group
+     * @param maxNumberOfBytes the maximum total size of the files per group
+     * @return the groups of files
+     * @throws IOException if the size of a file could not be read
+     */
+    public static List<List<Path>> binPack(@NonNull Collection<Path> files, int maxNumberOfFiles, long maxNumberOfBytes) throws IOException {
+        List<Map.Entry<Path, Long>> sizedFiles = new ArrayList<>(files.size());
+        for (Path file : files) {
+            BasicFileAttributes attributes = readAttributes(file);
+            if (attributes.isRegularFile()) {
+                sizedFiles.add(Map.entry(file, attributes.size()));
+            }
+        }
+        sizedFiles.sort(Map.Entry.<Path, Long> comparingByValue().reversed());
+
+        List<List<Path>> groups = new ArrayList<>();
+        List<Long> groupSizes = new ArrayList<>();
+        for (Map.Entry<Path, Long> sizedFile : sizedFiles) {
+            int group = 0;
+            while (group < groups.size() && (groups.get(group).size() >= maxNumberOfFiles || groupSizes.get(group) + sizedFile.getValue() > maxNumberOfBytes)) {
+                group++;
+            }
+            if (group == groups.size()) {
+                groups.add(new ArrayList<>());
+                groupSizes.add(0L);
+            }
+            groups.get(group).add(sizedFile.getKey());
+            groupSizes.set(group, groupSizes.get(group) + sizedFile.getValue());
+        }
+        return groups;
+    }
+
+    private void addFileToZipStream(ZipArchiveOutputStream zipArchiveOutputStream, Path fileToZip, BasicFileAttributes attributes, MultiDigest fileDigest) throws IOException {
+        ZipArchiveEntry zipArchiveEntry = createZipArchiveEntry(fileToZip, attributes);
+        if (zipArchiveEntry.getMethod() == ZipArchiveEntry.STORED && !zipArchiveOutputStream.isSeekable()) {
+            zipArchiveEntry.setCrc(computeCrc(fileToZip));
+        }
+        zipArchiveOutputStream.putArchiveEntry(zipArchiveEntry);
+        try (InputStream fileInputStream = fileDigest.wrap(Files.newInputStream(fileToZip))) {
+            IOUtils.copy(fileInputStream, zipArchiveOutputStream);
+            zipArchiveOutputStream.closeArchiveEntry();
+        }
+    }
+
+    private void addFileToScatterZipCreator(ParallelScatterZipCreator scatterZipCreator, Path fileToZip, BasicFileAttributes attributes, MultiDigest fileDigest, AtomicBoolean aborted)
+        throws IOException {
+        ZipArchiveEntry zipArchiveEntry = createZipArchiveEntry(fileToZip, attributes);
+        scatterZipCreator.addArchiveEntry(zipArchiveEntry, () -> {
+            if (aborted.get()) {
+                return InputStream.nullInputStream();
+            }
+            try {
+                // each file is read by one thread only, and the digests are completed after all threads are done
+                return fileDigest.wrap(Files.newInputStream(fileToZip));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static long computeCrc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("File to zip does not exist: " + path);
+        }
+    }
+
+    // the temporary files of the scatter zip creator are only removed by writeTo, which also waits for the files that were already handed to it
+    private static void discardScatterZipCreator(ParallelScatterZipCreator scatterZipCreator, AtomicBoolean aborted) {
+        aborted.set(true);
+        try {
+            scatterZipCreator.writeTo(new ZipArchiveOutputStream(OutputStream.nullOutputStream()));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException | ExecutionException e) {
+            // the ZIP file is discarded anyway, and the exception that caused it is more relevant
+        }
+    }
+
+    private void writeScatterZipCreator(ParallelScatterZipCreator scatterZipCreator, ZipArchiveOutputStream zipArchiveOutputStream) throws IOException {
+        try {
+            scatterZipCreator.writeTo(zipArchiveOutputStream);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while zipping files");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error while zipping files", e.getCause());
         }
     }
 
-    private void addFileToZipStream(ZipArchiveOutputStream zipArchiveOutputStream, Path fileToZip) throws IOException {
+    private ZipArchiveEntry createZipArchiveEntry(Path fileToZip, BasicFileAttributes attributes) throws IOException {
         if (!fileToZip.startsWith(rootDir)) {
             throw new IllegalArgumentException("File to zip is not a descendant of root directory: " + fileToZip);
         }
@@ -131,12 +425,64 @@ public class PathIteratorZipper {
         if (renameMap.containsKey(entryName)) {
             entryName = renameMap.get(entryName);
         }
-        ZipArchiveEntry zipArchiveEntry = new ZipArchiveEntry(fileToZip, entryName);
-        zipArchiveEntry.setMethod(compress ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED);
-        zipArchiveOutputStream.putArchiveEntry(zipArchiveEntry);
-        try (InputStream fileInputStream = Files.newInputStream(fileToZip)) {
-            IOUtils.copy(fileInputStream, zipArchiveOutputStream);
-            zipArchiveOutputStream.closeArchiveEntry();
+        ZipArchiveEntry zipArchiveEntry = new ZipArchiveEntry(entryName);
+        zipArchiveEntry.setSize(attributes.size());
+        if (reproducible) {
+            ReproducibleZipEntries.normalize(zipArchiveEntry);
+        }
+        else {
+            zipArchiveEntry.setLastModifiedTime(attributes.lastModifiedTime());
+        }
+        if (compressionPolicy != null) {
+            zipArchiveEntry.setMethod(compressionPolicy.shouldCompress(fileToZip, attributes.size()) ? ZipArchiveEntry.DEFLATED : ZipArchiveEntry.STORED);
+        }
+        else {
+            zipArchiveEntry.setMethod(compress ? ZipArchiveEntry.DEFLATED : ZipArchiveEntry.STORED);
+        }
+        return zipArchiveEntry;
+    }
+
+    /**
+     * {@link ParallelScatterZipCreator#writeTo(ZipArchiveOutputStream)} shuts down its executor service after all entries have been compressed. This wrapper lets it do so without shutting down the
+     * executor service of the caller. All tasks have completed by then, so there is nothing left to wait for.
+     */
+    private static class NonClosingExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private volatile boolean shutdown;
+
+        private NonClosingExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
         }
     }
-}
\ No newline at end of file
+}
@@ -19,6 +19,7 @@ import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.ExecuteResultHandler;
+import org.apache.commons.exec.ExecuteStreamHandler;
 import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
 
@@ -26,16 +27,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 
 public class ProcessInputStream extends InputStream {
     public static final int MAX_BYTES_ERROR_SNIPPET = 4096;
-    private final InputStream delegate;
+    private final StdoutStreamHandler streamHandler;
     private final CompletableFuture<Integer> exitCodeFuture;
     private final ByteArrayOutputStream stderrBuffer;
 
@@ -109,46 +110,33 @@ public class ProcessInputStream extends InputStream {
         // Configure which exit codes are considered successful.
         executor.setExitValues(successExitCodes);
 
-        // Stream stdout into a pipe that we read from, stderr to a separate buffer.
-        var pipedOut = new PipedOutputStream();
-        // Use a larger pipe buffer to reduce blocking under high throughput
-        var pipeBufferSize = 64 * 1024;
-        var pipedIn = new PipedInputStream(pipedOut, pipeBufferSize);
-        executor.setStreamHandler(new PumpStreamHandler(pipedOut, stderrBuffer));
+        // Read stdout directly from the process, without copying it through a pipe; pump stderr to a separate buffer.
+        this.streamHandler = new StdoutStreamHandler(stderrBuffer);
+        executor.setStreamHandler(streamHandler);
 
         executor.execute(commandLine, new ExecuteResultHandler() {
 
             @Override
             public void onProcessComplete(int exitValue) {
-                try {
-                    pipedOut.close();
-                }
-                catch (IOException ignored) {
-                }
                 // Completed successfully per configured success exit codes
                 exitCodeFuture.complete(exitValue);
             }
 
             @Override
             public void onProcessFailed(ExecuteException e) {
-                try {
-                    pipedOut.close();
-                }
-                catch (IOException ignored) {
-                }
-                // Non-success exit code or failure to execute
+                // Non-success exit code or failure to execute; in the latter case there is no stdout to read
+                streamHandler.stdout.complete(InputStream.nullInputStream());
                 exitCodeFuture.completeExceptionally(e);
             }
         });
-
-        this.delegate = pipedIn;
     }
 
     @Override
     public int read() throws IOException {
         earlyFailIfProcessFailed();
-        int r = delegate.read();
+        int r = delegate().read();
         if (r == -1) {
+            streamHandler.stdoutDone.countDown();
             ensureSuccess();
         }
         return r;
@@ -157,8 +145,9 @@ public class ProcessInputStream extends InputStream {
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
         earlyFailIfProcessFailed();
-        int n = delegate.read(b, off, len);
+        int n = delegate().read(b, off, len);
         if (n == -1) {
+            streamHandler.stdoutDone.countDown();
             ensureSuccess();
         }
         return n;
@@ -167,8 +156,9 @@ public class ProcessInputStream extends InputStream {
     @Override
     public int read(byte[] b) throws IOException {
         earlyFailIfProcessFailed();
-        int n = delegate.read(b);
+        int n = delegate().read(b);
         if (n == -1) {
+            streamHandler.stdoutDone.countDown();
             ensureSuccess();
         }
         return n;
@@ -176,27 +166,12 @@ public class ProcessInputStream extends InputStream {
 
     @Override
     public long skip(long n) throws IOException {
-        return delegate.skip(n);
+        return delegate().skip(n);
     }
 
     @Override
     public int available() throws IOException {
-        return delegate.available();
-    }
-
-    @Override
-    public synchronized void mark(int readlimit) {
-        delegate.mark(readlimit);
-    }
-
-    @Override
-    public synchronized void reset() throws IOException {
-        delegate.reset();
-    }
-
-    @Override
-    public boolean markSupported() {
-        return delegate.markSupported();
+        return delegate().available();
     }
 
     /**
@@ -207,13 +182,29 @@ public class ProcessInputStream extends InputStream {
     @Override
     public void close() throws IOException {
         try {
-            delegate.close();
+            delegate().close();
         }
         finally {
+            // Let the executor finish before waiting for it
+            streamHandler.stdoutDone.countDown();
             ensureSuccess();
         }
     }
 
+    private InputStream delegate() throws IOException {
+        try {
+            // The process is started asynchronously, so its stdout may not be available yet
+            return streamHandler.stdout.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for process start", ie);
+        }
+        catch (ExecutionException ee) {
+            throw new IOException("Process stdout not available", ee.getCause());
+        }
+    }
+
     private void earlyFailIfProcessFailed() throws IOException {
         // If nothing is available immediately and the process has already failed, throw now.
         if (available() == 0 && exitCodeFuture.isCompletedExceptionally()) {
@@ -268,4 +259,51 @@ public class ProcessInputStream extends InputStream {
         int start = Math.max(0, all.length - maxBytes);
         return new String(all, start, all.length - start, StandardCharsets.UTF_8).trim();
     }
+
+    /**
+     * Hands the stdout of the process to the reader of this stream as is, so that it is read with plain system calls rather than pumped through a {@link java.io.PipedInputStream} by another
+     * thread. Stderr is pumped to a buffer. The executor closes the streams of the process after calling {@link #stop()}, so that method waits until the reader has reached the end of stdout or
+     * closed this stream.
+     */
+    private static class StdoutStreamHandler implements ExecuteStreamHandler {
+        private final CompletableFuture<InputStream> stdout = new CompletableFuture<>();
+        private final CountDownLatch stdoutDone = new CountDownLatch(1);
+        private final PumpStreamHandler stderrPump;
+
+        private StdoutStreamHandler(OutputStream stderr) {
+            this.stderrPump = new PumpStreamHandler(OutputStream.nullOutputStream(), stderr);
+        }
+
+        @Override
+        public void setProcessInputStream(OutputStream os) {
+            // No input is provided, so this closes the stdin of the process
+            stderrPump.setProcessInputStream(os);
+        }
+
+        @Override
+        public void setProcessErrorStream(InputStream is) {
+            stderrPump.setProcessErrorStream(is);
+        }
+
+        @Override
+        public void setProcessOutputStream(InputStream is) {
+            stdout.complete(is);
+        }
+
+        @Override
+        public void start() {
+            stderrPump.start();
+        }
+
+        @Override
+        public void stop() throws IOException {
+            try {
+                stdoutDone.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stderrPump.stop();
+        }
+    }
 }
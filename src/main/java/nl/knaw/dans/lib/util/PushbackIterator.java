@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * An iterator that allows elements to be pushed back, so that they are returned again by the next calls to {@link #next()}. Elements that are pushed back are returned in last-in, first-out order,
+ * before the remaining elements of the underlying iterator.
+ *
+ * @param <T> the type of the elements
+ */
+@RequiredArgsConstructor
+public class PushbackIterator<T> implements Iterator<T> {
+    @NonNull
+    private final Iterator<T> iterator;
+
+    private final Deque<T> pushedBack = new ArrayDeque<>();
+
+    @Override
+    public boolean hasNext() {
+        return !pushedBack.isEmpty() || iterator.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!pushedBack.isEmpty()) {
+            return pushedBack.pop();
+        }
+        return iterator.next();
+    }
+
+    /**
+     * Pushes back an element, so that it is returned by the next call to {@link #next()}.
+     *
+     * @param element the element
+     */
+    public void pushBack(@NonNull T element) {
+        pushedBack.push(element);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Normalizes the metadata of ZIP entries, so that the same content always produces byte-for-byte the same ZIP file, regardless of when, where and by whom it was created.
+ */
+final class ReproducibleZipEntries {
+    private static final int FILE_MODE = 0100644;
+    private static final int DIRECTORY_MODE = 040755;
+
+    private ReproducibleZipEntries() {
+    }
+
+    /**
+     * Sets the modification time of the entry to 1980-01-01 00:00, the earliest time that the ZIP format can represent without extra fields, and its permissions to <code>rw-r--r--</code> for files
+     * and <code>rwxr-xr-x</code> for directories. The ZIP format stores local time, so the time is taken in the default time zone to produce the same bytes in every time zone.
+     *
+     * @param entry the entry to normalize
+     */
+    static void normalize(ZipArchiveEntry entry) {
+        entry.setTime(LocalDateTime.of(1980, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        entry.setUnixMode(entry.isDirectory() ? DIRECTORY_MODE : FILE_MODE);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * Zips the files from one iterator of paths into a sequence of ZIP files, each of which stays within a maximum number of files and bytes. The ZIP files are created lazily: each call to
+ * {@link #next()} creates the next ZIP file and returns its path, so that the caller can process (e.g. upload) a part before the next one is created. The parts are named
+ * <code>&lt;baseName&gt;-00001.zip</code>, <code>&lt;baseName&gt;-00002.zip</code>, etc., in the target directory. {@link #nextResult()} returns the digests computed while zipping as well.
+ * </p>
+ * <p>
+ * If a prefetch executor service is provided, the next part is created in the background while the caller processes the current one, so that zipping part N+1 overlaps with uploading part N. At most
+ * one part is created ahead. Parts are never deleted by this class; the caller should delete them when done.
+ * </p>
+ * <p>
+ * The parts are created with {@link PathIteratorZipper}, which takes all options that are not specific to splitting from this class; the source iterator is wrapped in a {@link PushbackIterator}, so
+ * that no part exceeds <code>maxNumberOfBytes</code> unless it consists of a single file that is larger than that. Paths that are not regular files are skipped.
+ * </p>
+ */
+@Builder
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class SplittingZipper implements Iterator<Path>, Closeable {
+    /**
+     * The root directory of the files to zip.
+     */
+    @NonNull
+    private final Path rootDir;
+    /**
+     * The iterator of paths to the files to zip.
+     */
+    @NonNull
+    private final PushbackIterator<Path> sourceIterator;
+    /**
+     * The directory to create the parts in.
+     */
+    @NonNull
+    private final Path targetDir;
+    /**
+     * The base name of the parts.
+     */
+    @Builder.Default
+    private final String baseName = "part";
+    /**
+     * Whether to overwrite existing parts.
+     */
+    @Builder.Default
+    private final boolean overwrite = true;
+    /**
+     * See {@link PathIteratorZipper}.
+     */
+    @Builder.Default
+    private final boolean compress = true;
+    /**
+     * See {@link PathIteratorZipper}.
+     */
+    @Builder.Default
+    private final int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * See {@link PathIteratorZipper}.
+     */
+    @Builder.Default
+    private final int deflaterStrategy = Deflater.DEFAULT_STRATEGY;
+    /**
+     * The maximum number of files per part.
+     */
+    @Builder.Default
+    private final int maxNumberOfFiles = Integer.MAX_VALUE;
+    /**
+     * The maximum number of bytes per part.
+     */
+    @Builder.Default
+    private final long maxNumberOfBytes = 1073741824; // 1 GB
+    /**
+     * See {@link PathIteratorZipper}.
+     */
+    @Builder.Default
+    private final Map<String, String> renameMap = new HashMap<>();
+    /**
+     * The executor service to compress the files of a part on. If null, the files are compressed on the thread that creates the part.
+     */
+    private final ExecutorService executorService;
+    /**
+     * See {@link PathIteratorZipper}.
+     */
+    private final CompressionPolicy compressionPolicy;
+    /**
+     * See {@link PathIteratorZipper}.
+     */
+    private final boolean reproducible;
+    /**
+     * See {@link PathIteratorZipper}.
+     */
+    @Builder.Default
+    private final Collection<String> fileDigestAlgorithms = List.of();
+    /**
+     * See {@link PathIteratorZipper}. The digests are computed per part.
+     */
+    @Builder.Default
+    private final Collection<String> archiveDigestAlgorithms = List.of();
+    /**
+     * The executor service to create the next part on in the background. If null, the parts are created on the calling thread.
+     */
+    private final ExecutorService prefetchExecutorService;
+
+    private final AtomicInteger numberOfParts = new AtomicInteger();
+    private final AtomicReference<Future<ZipResult>> prefetchedPart = new AtomicReference<>();
+
+    public static class SplittingZipperBuilder {
+        public SplittingZipperBuilder sourceIterator(@NonNull Iterator<Path> sourceIterator) {
+            this.sourceIterator = sourceIterator instanceof PushbackIterator<Path> pushbackIterator ? pushbackIterator : new PushbackIterator<>(sourceIterator);
+            return this;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return prefetchedPart.get() != null || hasFilesLeft();
+    }
+
+    /**
+     * Returns the next part, creating it first if it has not been prefetched.
+     *
+     * @return the path to the next part
+     * @throws UncheckedIOException if the part could not be created
+     */
+    @Override
+    public Path next() {
+        return nextResult().getTargetZipFile();
+    }
+
+    /**
+     * Returns the next part with the number of files and bytes in it and the digests computed while creating it, creating it first if it has not been prefetched.
+     *
+     * @return the result of zipping the next part
+     * @throws UncheckedIOException if the part could not be created
+     */
+    public ZipResult nextResult() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            ZipResult part = prefetchedPart.get() == null ? zipNextPart() : awaitPrefetchedPart();
+            if (prefetchExecutorService != null && hasFilesLeft()) {
+                prefetchedPart.set(prefetchExecutorService.submit(this::zipNextPart));
+            }
+            return part;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Cancels the creation of a prefetched part, if any. A partially written part may be left behind.
+     */
+    @Override
+    public void close() {
+        Future<ZipResult> part = prefetchedPart.getAndSet(null);
+        if (part != null) {
+            part.cancel(true);
+        }
+    }
+
+    // skips the paths that PathIteratorZipper would skip, so that no empty part is created for them; paths that do not exist are left to PathIteratorZipper to report
+    private boolean hasFilesLeft() {
+        while (sourceIterator.hasNext()) {
+            Path path = sourceIterator.next();
+            if (Files.isRegularFile(path) || Files.notExists(path)) {
+                sourceIterator.pushBack(path);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ZipResult zipNextPart() throws IOException {
+        return PathIteratorZipper.builder()
+            .rootDir(rootDir)
+            .sourceIterator(sourceIterator)
+            .targetZipFile(targetDir.resolve(String.format("%s-%05d.zip", baseName, numberOfParts.incrementAndGet())))
+            .overwrite(overwrite)
+            .compress(compress)
+            .compressionLevel(compressionLevel)
+            .deflaterStrategy(deflaterStrategy)
+            .compressionPolicy(compressionPolicy)
+            .maxNumberOfFiles(maxNumberOfFiles)
+            .maxNumberOfBytes(maxNumberOfBytes)
+            .renameMap(renameMap)
+            .executorService(executorService)
+            .reproducible(reproducible)
+            .fileDigestAlgorithms(fileDigestAlgorithms)
+            .archiveDigestAlgorithms(archiveDigestAlgorithms)
+            .build()
+            .zipWithResult();
+    }
+
+    private ZipResult awaitPrefetchedPart() throws IOException {
+        try {
+            return prefetchedPart.get().get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for next part");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Error while creating next part", e.getCause());
+        }
+        finally {
+            prefetchedPart.set(null);
+        }
+    }
+}
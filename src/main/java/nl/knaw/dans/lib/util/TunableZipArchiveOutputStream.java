@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * A {@link ZipArchiveOutputStream} that also allows the strategy of its {@link java.util.zip.Deflater} to be set, which {@link ZipArchiveOutputStream} itself does not expose.
+ */
+class TunableZipArchiveOutputStream extends ZipArchiveOutputStream {
+
+    TunableZipArchiveOutputStream(OutputStream outputStream) {
+        super(outputStream);
+    }
+
+    TunableZipArchiveOutputStream(Path file) throws IOException {
+        super(file);
+    }
+
+    /**
+     * Sets the level and strategy of the deflater used for entries that are compressed.
+     *
+     * @param level    the compression level, see {@link java.util.zip.Deflater#setLevel(int)}
+     * @param strategy the compression strategy, see {@link java.util.zip.Deflater#setStrategy(int)}
+     */
+    void setCompression(int level, int strategy) {
+        setLevel(level);
+        def.setStrategy(strategy);
+    }
+}
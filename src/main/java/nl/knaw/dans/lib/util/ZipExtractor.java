@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+
+/**
+ * <p>
+ * Extracts a ZIP file to a directory. Directories are created up front, once each, so that the entries can be extracted independently of each other. ZIP files that lack directory entries, such as
+ * those created by Dataverse, are supported.
+ * </p>
+ * <p>
+ * If an executor service is provided, the entries are extracted concurrently on the threads of that executor service, reading from the ZIP file at independent positions, so that inflating a large
+ * ZIP file scales with the number of cores. The executor service is not shut down by the extractor.
+ * </p>
+ * <p>
+ * Entries that are stored rather than compressed are copied from the ZIP file to the output file with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so that
+ * uncompressed archives are extracted at disk speed.
+ * </p>
+ * <p>
+ * An entry filter can be set to extract only some of the entries, e.g. the metadata of a deposit. The other entries are not read at all.
+ * </p>
+ * <p>
+ * {@link ZipLimits} can be set to guard against ZIP bombs. They are enforced while the data is extracted, so that the extraction is aborted as soon as a limit is exceeded.
+ * </p>
+ * <p>
+ * For mass ingest, the extractor can be tuned for predictable throughput: it can check up front that the sizes declared in the central directory fit on the file system, the files can be
+ * synced to disk per file or once at the end (see {@link SyncMode}), and the size of the copy buffer can be set.
+ * </p>
+ */
+@Builder
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class ZipExtractor {
+    // stored entries are transferred in chunks of this size, so that an aborted extraction stops soon
+    private static final long TRANSFER_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The ZIP file to extract.
+     */
+    @NonNull
+    private final Path zipFile;
+    /**
+     * The directory to extract the ZIP file to.
+     */
+    @NonNull
+    private final Path outputDirectory;
+    /**
+     * The executor service to extract the entries on. If null, the entries are extracted one by one on the calling thread.
+     */
+    private final ExecutorService executorService;
+    /**
+     * The filter that selects the entries to extract by name, e.g. {@link ZipUtil#globFilter(String...)}. If null, all entries are extracted.
+     */
+    private final Predicate<String> entryFilter;
+    /**
+     * The limits to enforce while extracting the ZIP file. If null, there are no limits.
+     */
+    private final ZipLimits limits;
+    /**
+     * Whether to check before extracting anything that the usable space of the file system of the output directory is at least the total size declared in the central directory, so that a
+     * mass ingest does not fill up the disk halfway through a ZIP file. Note that no space is reserved, so other processes may still use it up in the meantime.
+     */
+    @Builder.Default
+    private final boolean checkUsableSpace = false;
+    /**
+     * When to force the extracted files to disk.
+     */
+    @Builder.Default
+    private final SyncMode syncMode = SyncMode.NONE;
+    /**
+     * The size of the buffer used to copy each compressed entry to its output file.
+     */
+    @Builder.Default
+    private final int bufferSize = 256 * 1024;
+
+    /**
+     * When to force the extracted files to disk with {@link FileChannel#force(boolean)}. Directories are synced as well, where the platform supports it, so that the new files are not lost either.
+     */
+    public enum SyncMode {
+        /**
+         * Leave it to the operating system when to write the files to disk.
+         */
+        NONE,
+        /**
+         * Sync each file as soon as it is extracted. This gives the slowest, but most even, throughput.
+         */
+        PER_FILE,
+        /**
+         * Sync all files after all of them have been extracted, so that the operating system can write them back in larger batches.
+         */
+        AT_END
+    }
+
+    /**
+     * Extracts the ZIP file. If a limit is exceeded, the extraction is aborted and the entries extracted so far are left in the output directory. The file of an entry whose extraction fails is
+     * removed, so that it is not mistaken for a complete one.
+     *
+     * @throws ZipLimitExceededException if the ZIP file exceeds one of the limits
+     * @throws IOException               if an I/O error occurs while extracting the ZIP file
+     * @throws IllegalArgumentException  if an entry would be extracted outside the output directory
+     */
+    public void extract() throws IOException {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        ZipLimits limits = this.limits == null ? ZipLimits.unlimited() : this.limits;
+        try (ZipFile zip = openZipFile(zipFile); FileChannel zipChannel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
+            Set<Path> directories = new LinkedHashSet<>();
+            Map<ZipArchiveEntry, Path> files = new LinkedHashMap<>();
+            int numberOfEntries = 0;
+            long declaredTotalSize = 0;
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                if (entryFilter != null && !entryFilter.test(entry.getName())) {
+                    continue;
+                }
+                if (++numberOfEntries > limits.getMaxNumberOfEntries()) {
+                    throw new ZipLimitExceededException("Number of entries exceeds " + limits.getMaxNumberOfEntries());
+                }
+                if (Path.of(entry.getName()).getNameCount() > limits.getMaxDepth()) {
+                    throw new ZipLimitExceededException("Depth of entry '" + entry.getName() + "' exceeds " + limits.getMaxDepth());
+                }
+                if (entry.getSize() > limits.getCompressionRatioThreshold() && entry.getCompressedSize() > 0
+                    && (double) entry.getSize() / entry.getCompressedSize() > limits.getMaxCompressionRatio()) {
+                    throw new ZipLimitExceededException("Compression ratio of entry '" + entry.getName() + "' exceeds " + limits.getMaxCompressionRatio());
+                }
+                declaredTotalSize += Math.max(0, entry.getSize());
+                if (declaredTotalSize > limits.getMaxTotalSize()) {
+                    throw new ZipLimitExceededException("Total uncompressed size exceeds " + limits.getMaxTotalSize() + " bytes");
+                }
+                Path outputPath = getOutputPath(entry);
+                if (entry.isDirectory()) {
+                    directories.add(outputPath);
+                }
+                else {
+                    // ZIPs created by Dataverse don't seem to comply with the ZIP spec, so we have to create the parent directories manually
+                    directories.add(outputPath.getParent());
+                    // ZipFile reads local file headers with shared buffers, so do this here rather than on the threads extracting the entries
+                    zip.getRawInputStream(entry).close();
+                    files.put(entry, outputPath);
+                }
+            }
+            for (Path directory : directories) {
+                Files.createDirectories(directory);
+            }
+            if (checkUsableSpace && !files.isEmpty()) {
+                long usableSpace = Files.getFileStore(outputDirectory).getUsableSpace();
+                if (declaredTotalSize > usableSpace) {
+                    throw new IOException("Not enough usable space to extract " + zipFile + ": " + declaredTotalSize + " bytes needed, " + usableSpace + " bytes available");
+                }
+            }
+
+            // the sizes in the central directory may be forged, so count the bytes actually extracted as well
+            AtomicLong totalSize = new AtomicLong();
+            if (executorService == null) {
+                for (Map.Entry<ZipArchiveEntry, Path> file : files.entrySet()) {
+                    extractEntry(zip, zipChannel, file.getKey(), file.getValue(), limits, totalSize, new AtomicBoolean());
+                }
+            }
+            else {
+                extractEntriesInParallel(zip, zipChannel, files, limits, totalSize);
+            }
+            if (syncMode == SyncMode.AT_END) {
+                for (Path file : files.values()) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+            }
+            if (syncMode != SyncMode.NONE) {
+                for (Path directory : directories) {
+                    syncDirectory(directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a ZIP file without reading the local file headers of all entries up front. The central directory at the end of the ZIP file is enough to list the entries; the local file header of an
+     * entry is read only when its data is accessed. This makes opening a large ZIP file to read a few entries cheap.
+     *
+     * @param zipFile the ZIP file
+     * @return the opened ZIP file
+     * @throws IOException if the ZIP file could not be opened
+     */
+    static ZipFile openZipFile(Path zipFile) throws IOException {
+        return ZipFile.builder().setPath(zipFile).setIgnoreLocalFileHeader(true).get();
+    }
+
+    private Path getOutputPath(ZipArchiveEntry entry) {
+        Path outputPath = outputDirectory.resolve(entry.getName());
+        if (!outputPath.normalize().startsWith(outputDirectory)) {
+            throw new IllegalArgumentException("Bad zip entry path: '" + entry.getName() + "'");
+        }
+        return outputPath;
+    }
+
+    private void extractEntriesInParallel(ZipFile zip, FileChannel zipChannel, Map<ZipArchiveEntry, Path> files, ZipLimits limits, AtomicLong totalSize) throws IOException {
+        List<Future<?>> futures = new ArrayList<>(files.size());
+        // set when the extraction fails, so that the entries that are being extracted stop at the next buffer
+        AtomicBoolean aborted = new AtomicBoolean();
+        try {
+            for (Map.Entry<ZipArchiveEntry, Path> file : files.entrySet()) {
+                futures.add(executorService.submit(() -> {
+                    extractEntry(zip, zipChannel, file.getKey(), file.getValue(), limits, totalSize, aborted);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting " + zipFile);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Error while extracting " + zipFile, e.getCause());
+        }
+        finally {
+            aborted.set(true);
+            awaitOrCancel(futures);
+        }
+    }
+
+    // Interrupting the tasks would close the shared channel of the ZIP file under the other tasks, and the caller closes the ZIP file as soon as this method returns. So the tasks that have not started
+    // are cancelled without interrupting them, and the tasks that are running are waited for, so that no partially extracted file is left behind when the exception reaches the caller.
+    private static void awaitOrCancel(List<Future<?>> futures) {
+        futures.forEach(future -> future.cancel(false));
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (!future.isDone()) {
+                try {
+                    future.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException | CancellationException e) {
+                    // the first failure has already been reported
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void extractEntry(ZipFile zip, FileChannel zipChannel, ZipArchiveEntry entry, Path outputPath, ZipLimits limits, AtomicLong totalSize, AtomicBoolean aborted) throws IOException {
+        // the data of a stored entry takes up exactly its compressed size in the ZIP file; if the uncompressed size differs from that, one of them is wrong, and copying the uncompressed size
+        // from the data offset could copy the data of the next entries, so such an entry is read through the ZipFile instead, which stops at the compressed size
+        if (entry.getMethod() == ZipEntry.STORED && entry.getSize() == entry.getCompressedSize() && entry.getDataOffset() != ZipArchiveEntry.OFFSET_UNKNOWN && zip.canReadEntryData(entry)) {
+            // exactly the declared number of bytes is copied, and the compression ratio of a stored entry is 1
+            if (totalSize.addAndGet(entry.getSize()) > limits.getMaxTotalSize()) {
+                throw new ZipLimitExceededException("Total uncompressed size exceeds " + limits.getMaxTotalSize() + " bytes");
+            }
+            extractOrDelete(outputPath, () -> transferStoredEntry(zipChannel, entry, outputPath, aborted));
+            return;
+        }
+        extractOrDelete(outputPath, () -> copyEntry(zip, entry, outputPath, limits, totalSize, aborted));
+    }
+
+    // a partially extracted file would look like a complete one, so remove it if the extraction of the entry fails
+    private static void extractOrDelete(Path outputPath, EntryExtraction extraction) throws IOException {
+        try {
+            extraction.run();
+        }
+        catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(outputPath);
+            }
+            catch (IOException deleteException) {
+                e.addSuppressed(deleteException);
+            }
+            throw e;
+        }
+    }
+
+    private void copyEntry(ZipFile zip, ZipArchiveEntry entry, Path outputPath, ZipLimits limits, AtomicLong totalSize, AtomicBoolean aborted) throws IOException {
+        try (InputStream input = new LimitingInputStream(zip.getInputStream(entry), entry, limits, totalSize); FileChannel output = openOutputFile(outputPath)) {
+            byte[] buffer = new byte[bufferSize];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                checkNotAborted(aborted, entry);
+                byteBuffer.clear().limit(n);
+                while (byteBuffer.hasRemaining()) {
+                    output.write(byteBuffer);
+                }
+            }
+            syncOutputFile(output);
+        }
+    }
+
+    // the data of a stored entry is a verbatim copy of the file, so it can be copied from the ZIP file by the kernel without passing through the Java heap
+    private void transferStoredEntry(FileChannel zipChannel, ZipArchiveEntry entry, Path outputPath, AtomicBoolean aborted) throws IOException {
+        try (FileChannel output = openOutputFile(outputPath)) {
+            long offset = entry.getDataOffset();
+            long size = entry.getSize();
+            long transferred = 0;
+            while (transferred < size) {
+                checkNotAborted(aborted, entry);
+                long n = zipChannel.transferTo(offset + transferred, Math.min(size - transferred, TRANSFER_CHUNK_SIZE), output);
+                if (n <= 0) {
+                    throw new EOFException("Unexpected end of ZIP file while extracting " + entry.getName());
+                }
+                transferred += n;
+            }
+            syncOutputFile(output);
+        }
+    }
+
+    private static void checkNotAborted(AtomicBoolean aborted, ZipArchiveEntry entry) throws IOException {
+        if (aborted.get()) {
+            throw new IOException("Extraction of entry '" + entry.getName() + "' aborted because the extraction of another entry failed");
+        }
+    }
+
+    private static FileChannel openOutputFile(Path outputPath) throws IOException {
+        return FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private void syncOutputFile(FileChannel output) throws IOException {
+        if (syncMode == SyncMode.PER_FILE) {
+            output.force(true);
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            // directories cannot be opened or synced on all platforms, e.g. not on Windows; the files themselves have been synced
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryExtraction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Enforces the limits on the uncompressed data of an entry as it is read.
+     */
+    private static class LimitingInputStream extends FilterInputStream {
+        private final ZipArchiveEntry entry;
+        private final ZipLimits limits;
+        private final AtomicLong totalSize;
+        private long size = 0;
+
+        private LimitingInputStream(InputStream inputStream, ZipArchiveEntry entry, ZipLimits limits, AtomicLong totalSize) {
+            super(inputStream);
+            this.entry = entry;
+            this.limits = limits;
+            this.totalSize = totalSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            count(n);
+            return n;
+        }
+
+        private void count(long n) throws ZipLimitExceededException {
+            if (n <= 0) {
+                return;
+            }
+            size += n;
+            if (entry.getSize() >= 0 && size > entry.getSize()) {
+                throw new ZipLimitExceededException("Entry '" + entry.getName() + "' is larger than its declared size of " + entry.getSize() + " bytes");
+            }
+            if (size > limits.getCompressionRatioThreshold() && entry.getCompressedSize() > 0 && (double) size / entry.getCompressedSize() > limits.getMaxCompressionRatio()) {
+                throw new ZipLimitExceededException("Compression ratio of entry '" + entry.getName() + "' exceeds " + limits.getMaxCompressionRatio());
+            }
+            if (totalSize.addAndGet(n) > limits.getMaxTotalSize()) {
+                throw new ZipLimitExceededException("Total uncompressed size exceeds " + limits.getMaxTotalSize() + " bytes");
+            }
+        }
+    }
+}
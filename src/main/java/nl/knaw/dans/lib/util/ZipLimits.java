@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Limits on the resources that extracting a ZIP file may use, to guard against ZIP bombs: archives that expand to far more data or far more files than their size suggests. All limits are checked
+ * against the central directory before anything is extracted: the number of entries, their depth, their declared total size and the declared compression ratio of each entry. The sizes and the
+ * compression ratio are enforced again on the actual data while it is extracted, because the sizes in the central directory may be forged.
+ * <p>
+ * Note that the central directory is read into memory entirely when the ZIP file is opened, before the number of entries is checked. The limit on the number of entries therefore protects the
+ * output directory, not the memory of the extracting process; the central directory takes roughly as much memory as its size on disk.
+ * </p>
+ */
+@Value
+@Builder
+public class ZipLimits {
+    /**
+     * The maximum total number of bytes to extract.
+     */
+    @Builder.Default
+    long maxTotalSize = Long.MAX_VALUE;
+    /**
+     * The maximum number of entries to extract. See the note on memory use above.
+     */
+    @Builder.Default
+    int maxNumberOfEntries = Integer.MAX_VALUE;
+    /**
+     * The maximum ratio of the uncompressed size to the compressed size of an entry.
+     */
+    @Builder.Default
+    double maxCompressionRatio = Double.POSITIVE_INFINITY;
+    /**
+     * The number of uncompressed bytes of an entry above which the compression ratio is checked. Small files, e.g. files consisting of only spaces, can legitimately have a very high compression ratio.
+     */
+    @Builder.Default
+    long compressionRatioThreshold = 1024 * 1024;
+    /**
+     * The maximum number of path elements in the name of an entry, e.g. 3 for <code>data/dir/file.txt</code>.
+     */
+    @Builder.Default
+    int maxDepth = Integer.MAX_VALUE;
+
+    /**
+     * @return limits that allow everything
+     */
+    public static ZipLimits unlimited() {
+        return ZipLimits.builder().build();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.NonNull;
+import lombok.Value;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>
+ * Reads a ZIP file in place, so that its entries can be listed, inspected and read without extracting the ZIP file to disk. Only the central directory is read when the ZIP file is opened; the data
+ * of an entry is read only when it is requested.
+ * </p>
+ * <p>
+ * The streams returned for different entries can be read concurrently from different threads.
+ * </p>
+ */
+public class ZipReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Information about an entry, as recorded in the central directory of the ZIP file.
+     */
+    @Value
+    public static class EntryInfo {
+        String name;
+        boolean directory;
+        /**
+         * The uncompressed size in bytes, or -1 if unknown.
+         */
+        long size;
+        /**
+         * The compressed size in bytes, or -1 if unknown.
+         */
+        long compressedSize;
+        /**
+         * The CRC-32 of the uncompressed data, or -1 if unknown.
+         */
+        long crc;
+        /**
+         * The compression method, e.g. {@link ZipArchiveEntry#STORED} or {@link ZipArchiveEntry#DEFLATED}.
+         */
+        int method;
+        FileTime lastModifiedTime;
+    }
+
+    private final Path zipFilePath;
+    private final ZipFile zipFile;
+
+    /**
+     * Opens a ZIP file for reading.
+     *
+     * @param zipFilePath the ZIP file
+     * @throws IOException if the ZIP file could not be opened
+     */
+    public ZipReader(@NonNull Path zipFilePath) throws IOException {
+        this.zipFilePath = zipFilePath;
+        this.zipFile = ZipExtractor.openZipFile(zipFilePath);
+    }
+
+    /**
+     * Returns the entries of the ZIP file, in the order of the central directory. The information is created lazily, as the stream is consumed.
+     *
+     * @return the entries
+     */
+    public Stream<EntryInfo> entries() {
+        Iterator<ZipArchiveEntry> entries = zipFile.getEntries().asIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .map(ZipReader::toEntryInfo);
+    }
+
+    /**
+     * Returns the entry with the given name.
+     *
+     * @param entryName the name of the entry
+     * @return the entry, or empty if the ZIP file has no entry with that name
+     */
+    public Optional<EntryInfo> getEntry(String entryName) {
+        return Optional.ofNullable(zipFile.getEntry(entryName)).map(ZipReader::toEntryInfo);
+    }
+
+    /**
+     * Opens a stream to read the uncompressed data of an entry. The stream must be closed by the caller.
+     *
+     * @param entryName the name of the entry
+     * @return the stream
+     * @throws NoSuchFileException if the ZIP file has no entry with that name
+     * @throws IOException         if the entry could not be read
+     */
+    public InputStream newInputStream(String entryName) throws IOException {
+        ZipArchiveEntry entry = zipFile.getEntry(entryName);
+        if (entry == null) {
+            throw new NoSuchFileException(entryName, null, "No such entry in " + zipFilePath);
+        }
+        // ZipFile reads the local file header of the entry with shared buffers when a stream is opened; the stream itself reads at independent positions
+        synchronized (zipFile) {
+            return zipFile.getInputStream(entry);
+        }
+    }
+
+    /**
+     * Opens a channel to read the uncompressed data of an entry. The channel must be closed by the caller.
+     *
+     * @param entryName the name of the entry
+     * @return the channel
+     * @throws NoSuchFileException if the ZIP file has no entry with that name
+     * @throws IOException         if the entry could not be read
+     */
+    public ReadableByteChannel newChannel(String entryName) throws IOException {
+        return Channels.newChannel(newInputStream(entryName));
+    }
+
+    /**
+     * Reads the uncompressed data of an entry into memory. This is meant for small entries, such as metadata files.
+     *
+     * @param entryName the name of the entry
+     * @return the data
+     * @throws NoSuchFileException if the ZIP file has no entry with that name
+     * @throws IOException         if the entry could not be read
+     */
+    public byte[] readAllBytes(String entryName) throws IOException {
+        try (InputStream inputStream = newInputStream(entryName)) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    /**
+     * Computes the checksum of the uncompressed data of an entry, streaming the data through the digest.
+     *
+     * @param entryName the name of the entry
+     * @param algorithm the algorithm, as accepted by {@link MessageDigest#getInstance(String)}, e.g. <code>SHA-1</code>
+     * @return the checksum as a lowercase hexadecimal string
+     * @throws NoSuchFileException      if the ZIP file has no entry with that name
+     * @throws IOException              if the entry could not be read
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public String computeChecksum(String entryName, String algorithm) throws IOException {
+        MessageDigest digest = createDigest(algorithm);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = newInputStream(entryName)) {
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the checksums of the files in the ZIP file that are accepted by the filter. Directory entries are skipped.
+     *
+     * @param algorithm   the algorithm, as accepted by {@link MessageDigest#getInstance(String)}, e.g. <code>SHA-1</code>
+     * @param entryFilter the filter that selects the entries by name
+     * @return a map of entry names to checksums, in the order of the central directory
+     * @throws IOException              if an entry could not be read
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public Map<String, String> computeChecksums(String algorithm, Predicate<String> entryFilter) throws IOException {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (Iterator<ZipArchiveEntry> entries = zipFile.getEntries().asIterator(); entries.hasNext(); ) {
+            ZipArchiveEntry entry = entries.next();
+            if (!entry.isDirectory() && entryFilter.test(entry.getName())) {
+                checksums.put(entry.getName(), computeChecksum(entry.getName(), algorithm));
+            }
+        }
+        return checksums;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+
+    private static EntryInfo toEntryInfo(ZipArchiveEntry entry) {
+        return new EntryInfo(entry.getName(), entry.isDirectory(), entry.getSize(), entry.getCompressedSize(), entry.getCrc(), entry.getMethod(), entry.getLastModifiedTime());
+    }
+
+    private static MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+    }
+}
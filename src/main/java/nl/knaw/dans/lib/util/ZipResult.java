@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import lombok.Value;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * The result of zipping files with a {@link PathIteratorZipper}.
+ */
+@Value
+public class ZipResult {
+    /**
+     * The path to the ZIP file, or null if the ZIP file was written to an output stream.
+     */
+    Path targetZipFile;
+    /**
+     * The number of files in the ZIP file.
+     */
+    int numberOfFiles;
+    /**
+     * The total size of the files in the ZIP file, before compression.
+     */
+    long numberOfBytes;
+    /**
+     * The digests of the files in the ZIP file, as a map of source paths to maps of algorithms to hexadecimal digests. Empty if no file digest algorithms were configured.
+     */
+    Map<Path, Map<String, String>> fileDigests;
+    /**
+     * The digests of the ZIP file itself, as a map of algorithms to hexadecimal digests. Empty if no archive digest algorithms were configured.
+     */
+    Map<String, String> archiveDigests;
+}
@@ -15,92 +15,201 @@
  */
 package nl.knaw.dans.lib.util;
 
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
-import org.apache.commons.compress.archivers.zip.ZipFile;
-import org.apache.commons.io.IOUtils;
-
-import java.io.BufferedOutputStream;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.stream.Stream;
+import java.nio.file.PathMatcher;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 public class ZipUtil {
 
     public static void extractZipFile(Path zipFilePath, Path outputDirectory) throws IOException {
-        try (ZipFile zipFile = ZipFile.builder().setPath(zipFilePath).get()) {
-            Collections.list(zipFile.getEntries()).forEach(entry -> {
-                try (InputStream input = zipFile.getInputStream(entry)) {
-                    Path outputPath = outputDirectory.resolve(entry.getName());
-                    if (!outputPath.normalize().startsWith(outputDirectory)) {
-                        throw new IllegalArgumentException("Bad zip entry path: '" + entry.getName() + "'");
-                    }
-                    if (entry.isDirectory()) {
-                        Files.createDirectories(outputPath);
-                        return;
-                    }
-                    Files.createDirectories(outputPath.getParent()); // ZIPs created by Dataverse don't seem to comply with the ZIP spec, so we have to create the parent directories manually
-                    try (var os = Files.newOutputStream(outputPath)) {
-                        IOUtils.copyLarge(input, os);
-                    }
-                }
-                catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
+        ZipExtractor.builder()
+            .zipFile(zipFilePath)
+            .outputDirectory(outputDirectory)
+            .build()
+            .extract();
     }
 
-    public static void zipDirectory(Path sourceDirectory, Path targetZipFile, boolean oneRootDir) throws IOException {
-        try (OutputStream outputStream = Files.newOutputStream(targetZipFile)) {
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-            try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(bufferedOutputStream)) {
-                String base;
-                if (oneRootDir) {
-                    zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry(sourceDirectory.toFile(), sourceDirectory.getFileName().toString() + "/"));
-                    zipArchiveOutputStream.closeArchiveEntry();
-                    base = sourceDirectory.getFileName().toString() + "/";
-                }
-                else {
-                    base = "";
-                }
-                try (Stream<Path> paths = Files.list(sourceDirectory)) {
-                    paths.forEach(path -> {
-                        try {
-                            addFileToZipStream(zipArchiveOutputStream, path.toFile(), base);
-                        }
-                        catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
-                }
-            }
-        }
+    /**
+     * Extracts a ZIP file to a directory, extracting the entries concurrently on the given executor service. See {@link ZipExtractor}.
+     *
+     * @param zipFilePath     the ZIP file to extract
+     * @param outputDirectory the directory to extract the ZIP file to
+     * @param executorService the executor service to extract the entries on, or null to extract them on the calling thread
+     * @throws IOException if an I/O error occurs
+     */
+    public static void extractZipFile(Path zipFilePath, Path outputDirectory, ExecutorService executorService) throws IOException {
+        ZipExtractor.builder()
+            .zipFile(zipFilePath)
+            .outputDirectory(outputDirectory)
+            .executorService(executorService)
+            .build()
+            .extract();
     }
 
-    private static void addFileToZipStream(ZipArchiveOutputStream zipArchiveOutputStream, File fileToZip, String base) throws IOException {
-        String entryName = base + fileToZip.getName();
-        ZipArchiveEntry zipArchiveEntry = new ZipArchiveEntry(fileToZip, entryName);
-        zipArchiveOutputStream.putArchiveEntry(zipArchiveEntry);
-        if (fileToZip.isFile()) {
-            try (InputStream fileInputStream = Files.newInputStream(fileToZip.toPath())) {
-                IOUtils.copy(fileInputStream, zipArchiveOutputStream);
-                zipArchiveOutputStream.closeArchiveEntry();
-            }
+    /**
+     * Extracts the entries of a ZIP file that are accepted by the filter. See {@link ZipExtractor}.
+     *
+     * @param zipFilePath     the ZIP file to extract from
+     * @param outputDirectory the directory to extract the entries to
+     * @param entryFilter     the filter that selects the entries to extract by name, e.g. {@link #globFilter(String...)}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void extractZipFile(Path zipFilePath, Path outputDirectory, Predicate<String> entryFilter) throws IOException {
+        ZipExtractor.builder()
+            .zipFile(zipFilePath)
+            .outputDirectory(outputDirectory)
+            .entryFilter(entryFilter)
+            .build()
+            .extract();
+    }
+
+    /**
+     * Opens a ZIP file for reading its entries in place. See {@link ZipReader}.
+     *
+     * @param zipFilePath the ZIP file
+     * @return the reader, which must be closed by the caller
+     * @throws IOException if the ZIP file could not be opened
+     */
+    public static ZipReader openZipFile(Path zipFilePath) throws IOException {
+        return new ZipReader(zipFilePath);
+    }
+
+    /**
+     * Reads the content of one entry of a ZIP file into memory, without reading any other entries.
+     *
+     * @param zipFilePath the ZIP file
+     * @param entryName   the name of the entry, e.g. <code>bag/bag-info.txt</code>
+     * @return the content of the entry
+     * @throws NoSuchFileException if the ZIP file has no entry with that name
+     * @throws IOException         if an I/O error occurs
+     */
+    public static byte[] readEntry(Path zipFilePath, String entryName) throws IOException {
+        try (ZipReader zipReader = new ZipReader(zipFilePath)) {
+            return zipReader.readAllBytes(entryName);
         }
-        else {
-            zipArchiveOutputStream.closeArchiveEntry();
-            File[] files = fileToZip.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    addFileToZipStream(zipArchiveOutputStream, file, entryName + "/");
+    }
+
+    /**
+     * Reads the content of the entries of a ZIP file that are accepted by the filter into memory, without reading any other entries. This is meant for small entries, such as metadata files.
+     *
+     * @param zipFilePath the ZIP file
+     * @param entryFilter the filter that selects the entries to read by name, e.g. {@link #globFilter(String...)}
+     * @return a map of entry names to contents, in the order of the entries in the ZIP file
+     * @throws IOException if an I/O error occurs
+     */
+    public static Map<String, byte[]> readEntries(Path zipFilePath, Predicate<String> entryFilter) throws IOException {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        try (ZipReader zipReader = new ZipReader(zipFilePath)) {
+            Iterator<ZipReader.EntryInfo> entries = zipReader.entries().iterator();
+            while (entries.hasNext()) {
+                ZipReader.EntryInfo entry = entries.next();
+                if (!entry.isDirectory() && entryFilter.test(entry.getName())) {
+                    contents.put(entry.getName(), zipReader.readAllBytes(entry.getName()));
                 }
             }
         }
+        return contents;
+    }
+
+    /**
+     * Returns a filter that accepts entry names matching any of the given glob patterns, e.g. <code>*&#47;bag-info.txt</code> or <code>**&#47;metadata/*.xml</code>. See
+     * {@link java.nio.file.FileSystem#getPathMatcher(String)} for the syntax.
+     *
+     * @param globs the glob patterns
+     * @return the filter
+     */
+    public static Predicate<String> globFilter(String... globs) {
+        List<PathMatcher> matchers = Arrays.stream(globs)
+            .map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+            .collect(Collectors.toList());
+        return entryName -> {
+            Path path = Path.of(entryName);
+            return matchers.stream().anyMatch(matcher -> matcher.matches(path));
+        };
+    }
+
+    public static void zipDirectory(Path sourceDirectory, Path targetZipFile, boolean oneRootDir) throws IOException {
+        zipDirectory(sourceDirectory, targetZipFile, oneRootDir, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * Zips a directory with the given compression level and strategy, e.g. {@link Deflater#BEST_SPEED} for throughput or {@link Deflater#BEST_COMPRESSION} for archival.
+     *
+     * @param sourceDirectory  the directory to zip
+     * @param targetZipFile    the ZIP file to create
+     * @param oneRootDir       whether to put the contents of the directory in a root directory with the name of the source directory
+     * @param compressionLevel the compression level, see {@link Deflater#setLevel(int)}
+     * @param deflaterStrategy the compression strategy, see {@link Deflater#setStrategy(int)}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void zipDirectory(Path sourceDirectory, Path targetZipFile, boolean oneRootDir, int compressionLevel, int deflaterStrategy) throws IOException {
+        DirectoryZipper.builder()
+            .sourceDirectory(sourceDirectory)
+            .oneRootDir(oneRootDir)
+            .compressionLevel(compressionLevel)
+            .deflaterStrategy(deflaterStrategy)
+            .build()
+            .zipTo(targetZipFile);
+    }
+
+    /**
+     * Zips a directory to an output stream, e.g. the body of an HTTP request, without creating a temporary file. The output stream is flushed, but not closed.
+     *
+     * @param sourceDirectory the directory to zip
+     * @param outputStream    the output stream to write the ZIP file to
+     * @param oneRootDir      whether to put the contents of the directory in a root directory with the name of the source directory
+     * @throws IOException if an I/O error occurs
+     */
+    public static void zipDirectory(Path sourceDirectory, OutputStream outputStream, boolean oneRootDir) throws IOException {
+        zipDirectory(sourceDirectory, outputStream, oneRootDir, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * Zips a directory to an output stream with the given compression level and strategy. The output stream is flushed, but not closed.
+     *
+     * @param sourceDirectory  the directory to zip
+     * @param outputStream     the output stream to write the ZIP file to
+     * @param oneRootDir       whether to put the contents of the directory in a root directory with the name of the source directory
+     * @param compressionLevel the compression level, see {@link Deflater#setLevel(int)}
+     * @param deflaterStrategy the compression strategy, see {@link Deflater#setStrategy(int)}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void zipDirectory(Path sourceDirectory, OutputStream outputStream, boolean oneRootDir, int compressionLevel, int deflaterStrategy) throws IOException {
+        DirectoryZipper.builder()
+            .sourceDirectory(sourceDirectory)
+            .oneRootDir(oneRootDir)
+            .compressionLevel(compressionLevel)
+            .deflaterStrategy(deflaterStrategy)
+            .build()
+            .zipTo(outputStream);
+    }
+
+    /**
+     * Zips a directory reproducibly: zipping the same content always produces byte-for-byte the same ZIP file. See {@link DirectoryZipper}.
+     *
+     * @param sourceDirectory the directory to zip
+     * @param targetZipFile   the ZIP file to create
+     * @param oneRootDir      whether to put the contents of the directory in a root directory with the name of the source directory
+     * @throws IOException if an I/O error occurs
+     */
+    public static void zipDirectoryReproducibly(Path sourceDirectory, Path targetZipFile, boolean oneRootDir) throws IOException {
+        DirectoryZipper.builder()
+            .sourceDirectory(sourceDirectory)
+            .oneRootDir(oneRootDir)
+            .reproducible(true)
+            .build()
+            .zipTo(targetZipFile);
     }
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.w3c.dom.Document;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * The context of the validation of one bag. It is created by the {@link RuleEngine} at the start of {@link RuleEngine#validateBag(Path, List)} and passed to every
+ * {@link ContextualBagValidatorRule} of the rule set. The context lazily loads the artefacts of the bag that rules typically need (tag files, manifests, parsed XML documents, the list of files) and
+ * memoizes them, so that each artefact is read and parsed only once per bag, no matter how many rules use it.
+ * </p>
+ * <p>
+ * The context is thread-safe: if two rules request the same artefact at the same time, it is loaded only once and both rules receive the same instance. The returned collections are unmodifiable.
+ * Note, however, that DOM documents are not thread-safe: rules must not modify them, and rules that may run concurrently should synchronize on the document while traversing it.
+ * </p>
+ */
+public class BagValidationContext {
+    private static final DocumentBuilderFactory documentBuilderFactory = createDocumentBuilderFactory();
+
+    /**
+     * The root directory of the bag being validated.
+     */
+    @Getter
+    private final Path bagDir;
+
+    private final Map<String, CompletableFuture<Object>> cache = new ConcurrentHashMap<>();
+    private final ThreadLocal<Set<String>> keysBeingLoaded = ThreadLocal.withInitial(HashSet::new);
+
+    public BagValidationContext(@NonNull Path bagDir) {
+        this.bagDir = bagDir;
+    }
+
+    /**
+     * Returns the value stored under <code>key</code>, loading it with <code>loader</code> if this is the first request for that key. This can be used by rules to share custom artefacts. Note that
+     * a failure to load the value is memoized as well: every subsequent request for the key will throw the same exception. Failures caused by an interrupt, e.g. because the rule that was loading the
+     * value timed out, are not memoized: such a failure is thrown only to the interrupted rule, and the value is loaded again by the next request, or by a request that was waiting for it.
+     *
+     * @param key    the key; keys starting with <code>bag:</code> are reserved for the artefacts provided by this class
+     * @param loader the function that loads the value; it must not request the same key, directly or indirectly
+     * @param <T>    the type of the value
+     * @return the value
+     * @throws IllegalStateException if the loader requests the key it is loading
+     * @throws Exception             if the value could not be loaded
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NonNull String key, @NonNull Callable<T> loader) throws Exception {
+        if (keysBeingLoaded.get().contains(key)) {
+            // waiting for the future would mean waiting for ourselves
+            throw new IllegalStateException("Recursive request for '" + key + "' while loading it");
+        }
+
+        while (true) {
+            var future = new CompletableFuture<Object>();
+            var existing = cache.putIfAbsent(key, future);
+
+            if (existing == null) {
+                keysBeingLoaded.get().add(key);
+                try {
+                    future.complete(loader.call());
+                }
+                catch (Throwable e) {
+                    if (isCausedByInterrupt(e)) {
+                        cache.remove(key, future);
+                    }
+                    future.completeExceptionally(e);
+                }
+                finally {
+                    keysBeingLoaded.get().remove(key);
+                }
+                existing = future;
+            }
+
+            try {
+                return (T) existing.get();
+            }
+            catch (ExecutionException e) {
+                if (existing != future && isCausedByInterrupt(e.getCause())) {
+                    // the rule that was loading the value was interrupted, but this one was not, so load the value again
+                    continue;
+                }
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isCausedByInterrupt(Throwable e) {
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException || cause instanceof ClosedByInterruptException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the lines of a text file in the bag, decoded as UTF-8.
+     *
+     * @param relativePath the path of the file relative to the bag directory
+     * @return the lines of the file
+     * @throws Exception if the file could not be read
+     */
+    public List<String> readAllLines(Path relativePath) throws Exception {
+        var file = resolve(relativePath);
+        return get("bag:lines:" + file, () -> Collections.unmodifiableList(Files.readAllLines(file, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the elements of <code>bag-info.txt</code>. Values that are continued on subsequent lines are joined with a single space. The labels are returned in the order in which they first
+     * appear in the file.
+     *
+     * @return a map of labels to their values
+     * @throws Exception if <code>bag-info.txt</code> could not be read
+     */
+    public Map<String, List<String>> getBagInfo() throws Exception {
+        return get("bag:bag-info", () -> parseBagInfo(readAllLines(Path.of("bag-info.txt"))));
+    }
+
+    /**
+     * Returns the entries of the payload manifest for the given algorithm, i.e. <code>manifest-&lt;algorithm&gt;.txt</code>.
+     *
+     * @param algorithm the checksum algorithm as it appears in the file name, e.g. <code>sha1</code>
+     * @return a map of file paths relative to the bag directory to checksums
+     * @throws Exception if the manifest could not be read
+     */
+    public Map<Path, String> getManifest(String algorithm) throws Exception {
+        return get("bag:manifest:" + algorithm, () -> parseManifest(readAllLines(Path.of("manifest-" + algorithm + ".txt"))));
+    }
+
+    /**
+     * Returns the entries of the tag manifest for the given algorithm, i.e. <code>tagmanifest-&lt;algorithm&gt;.txt</code>.
+     *
+     * @param algorithm the checksum algorithm as it appears in the file name, e.g. <code>sha1</code>
+     * @return a map of file paths relative to the bag directory to checksums
+     * @throws Exception if the tag manifest could not be read
+     */
+    public Map<Path, String> getTagManifest(String algorithm) throws Exception {
+        return get("bag:tagmanifest:" + algorithm, () -> parseManifest(readAllLines(Path.of("tagmanifest-" + algorithm + ".txt"))));
+    }
+
+    /**
+     * Returns an XML file in the bag, parsed into a namespace-aware DOM tree. The document is shared by all rules, so it must not be modified.
+     *
+     * @param relativePath the path of the file relative to the bag directory
+     * @return the parsed document
+     * @throws Exception if the file could not be read or parsed
+     */
+    public Document getXmlDocument(Path relativePath) throws Exception {
+        var file = resolve(relativePath);
+        return get("bag:xml:" + file, () -> newDocumentBuilder().parse(file.toFile()));
+    }
+
+    /**
+     * Returns the paths of all regular files in the bag, relative to the bag directory and in lexicographical order.
+     *
+     * @return the list of files
+     * @throws Exception if the bag directory could not be read
+     */
+    public List<Path> getFiles() throws Exception {
+        return get("bag:files", () -> {
+            try (Stream<Path> files = Files.walk(bagDir)) {
+                return files.filter(Files::isRegularFile)
+                    .map(bagDir::relativize)
+                    .sorted()
+                    .collect(Collectors.toUnmodifiableList());
+            }
+        });
+    }
+
+    private Path resolve(Path relativePath) {
+        return bagDir.resolve(relativePath).normalize();
+    }
+
+    private static Map<String, List<String>> parseBagInfo(List<String> lines) {
+        var elements = new LinkedHashMap<String, List<String>>();
+        String label = null;
+        StringBuilder value = null;
+
+        for (var line : lines) {
+            if (!line.isEmpty() && Character.isWhitespace(line.charAt(0)) && value != null) {
+                value.append(' ').append(line.strip());
+                continue;
+            }
+
+            if (label != null) {
+                elements.computeIfAbsent(label, k -> new ArrayList<>()).add(value.toString());
+            }
+
+            var separator = line.indexOf(':');
+
+            if (separator < 0) {
+                label = null;
+                value = null;
+            }
+            else {
+                label = line.substring(0, separator).strip();
+                value = new StringBuilder(line.substring(separator + 1).strip());
+            }
+        }
+
+        if (label != null) {
+            elements.computeIfAbsent(label, k -> new ArrayList<>()).add(value.toString());
+        }
+
+        elements.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        return Collections.unmodifiableMap(elements);
+    }
+
+    private static Map<Path, String> parseManifest(List<String> lines) {
+        var entries = new LinkedHashMap<Path, String>();
+
+        for (var line : lines) {
+            var trimmed = line.strip();
+            var separator = indexOfWhitespace(trimmed);
+
+            if (separator < 0) {
+                continue;
+            }
+
+            entries.put(Path.of(decodeFilePath(trimmed.substring(separator).strip())), trimmed.substring(0, separator));
+        }
+
+        return Collections.unmodifiableMap(entries);
+    }
+
+    private static int indexOfWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // BagIt manifests percent-encode CR, LF and the percent sign itself in file paths
+    private static String decodeFilePath(String filePath) {
+        if (filePath.indexOf('%') < 0) {
+            return filePath;
+        }
+
+        return filePath.replaceAll("(?i)%0A", "\n")
+            .replaceAll("(?i)%0D", "\r")
+            .replaceAll("%25", "%");
+    }
+
+    // a DocumentBuilderFactory is not guaranteed to be thread-safe, but the builders it creates are independent
+    private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        synchronized (documentBuilderFactory) {
+            return documentBuilderFactory.newDocumentBuilder();
+        }
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        var factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        // bags are untrusted input, so do not resolve external entities or DTDs
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        return factory;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Receives the outcome of each bag validated by a {@link BatchBagValidator}, as soon as the validation of that bag is complete. The methods may be called concurrently from different threads.
+ */
+public interface BagValidationListener {
+
+    /**
+     * Called when a bag has been validated.
+     *
+     * @param bag     the bag
+     * @param results the results of the rules, in the order of the rule set
+     */
+    void onValidated(Path bag, List<RuleValidationResult> results);
+
+    /**
+     * Called when the validation of a bag could not be completed.
+     *
+     * @param bag       the bag
+     * @param exception the exception thrown by the rule engine
+     */
+    void onError(Path bag, Exception exception);
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The results of the validation of one bag, in the order of the rule set. The report only holds references to the results, so creating it is cheap; the text representation is produced only when
+ * {@link #render(boolean)} or {@link #renderTo(Appendable, boolean)} is called.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class BagValidationReport {
+    /**
+     * The bag that was validated.
+     */
+    private final Path bag;
+    /**
+     * The results of the rules, in the order of the rule set.
+     */
+    private final List<RuleValidationResult> results;
+    /**
+     * The total time it took to validate the bag.
+     */
+    @EqualsAndHashCode.Exclude
+    private final Duration duration;
+
+    public BagValidationReport(@NonNull Path bag, @NonNull List<RuleValidationResult> results, Duration duration) {
+        this.bag = bag;
+        this.results = results;
+        this.duration = duration;
+    }
+
+    /**
+     * Returns whether all executed rules succeeded and no rule was cancelled or timed out.
+     *
+     * @return true if the bag is valid
+     */
+    public boolean isValid() {
+        for (var result : results) {
+            switch (result.getStatus()) {
+                case FAILURE, CANCELLED, TIMEOUT -> {
+                    return false;
+                }
+                default -> {
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Renders the report as text, one line per rule, e.g. <code>! Rule 1.2: FAILURE - some error</code>.
+     *
+     * @param includeTimings whether to include the execution time of each rule
+     * @return the text
+     */
+    public String render(boolean includeTimings) {
+        var builder = new StringBuilder(results.size() * 32);
+
+        try {
+            renderTo(builder, includeTimings);
+        }
+        catch (IOException e) {
+            // cannot happen with a StringBuilder
+            throw new UncheckedIOException(e);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the text representation of the report (see {@link #render(boolean)}) to <code>out</code>, without building it in memory first.
+     *
+     * @param out            the destination
+     * @param includeTimings whether to include the execution time of each rule
+     * @throws IOException if <code>out</code> throws it
+     */
+    public void renderTo(Appendable out, boolean includeTimings) throws IOException {
+        var maxNumberLength = 0;
+
+        for (var result : results) {
+            maxNumberLength = Math.max(maxNumberLength, result.getNumber().length());
+        }
+
+        var first = true;
+
+        for (var result : results) {
+            if (!first) {
+                out.append('\n');
+            }
+            first = false;
+
+            out.append("! Rule ").append(result.getNumber()).append(": ");
+
+            // align the statuses
+            for (int i = result.getNumber().length(); i <= maxNumberLength; i++) {
+                out.append(' ');
+            }
+
+            out.append(result.getStatus().name());
+
+            if (includeTimings && result.getDuration() != null) {
+                out.append(" (").append(Long.toString(result.getDuration().toMillis())).append(" ms)");
+            }
+
+            if (result.getErrorMessage() != null) {
+                out.append(" - ");
+                appendMarkingContinuationLines(out, result.getErrorMessage());
+            }
+        }
+    }
+
+    // each line of a multi-line message starts with '!', so that the report stands out in the log
+    private static void appendMarkingContinuationLines(Appendable out, String message) throws IOException {
+        var start = 0;
+        var newline = message.indexOf('\n');
+
+        while (newline >= 0) {
+            out.append(message, start, newline + 1).append('!');
+            start = newline + 1;
+            newline = message.indexOf('\n', start);
+        }
+
+        out.append(message, start, message.length());
+    }
+}
@@ -18,7 +18,8 @@ package nl.knaw.dans.lib.util.ruleengine;
 import java.nio.file.Path;
 
 /**
- * Represents a rule to be validated.
+ * Represents a rule to be validated. Rules that read artefacts of the bag that other rules read as well (manifests, tag files, metadata) should implement {@link ContextualBagValidatorRule}
+ * instead, so that these artefacts are loaded only once per bag.
  */
 @FunctionalInterface
 public interface BagValidatorRule {
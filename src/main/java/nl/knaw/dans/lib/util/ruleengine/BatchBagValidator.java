@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * Validates a sequence of bags against one rule set, validating at most <code>maxParallelBags</code> bags at the same time. The outcome of each bag is passed to a {@link BagValidationListener} as
+ * soon as it is available, and the next bag is only taken from the sequence when a validation slot is free, so memory use does not grow with the number of bags.
+ * </p>
+ * <p>
+ * Parallelism within a bag is configured on the {@link RuleEngineImpl} itself (see <code>maxParallelRules</code>). The rule engine must then use a different executor than this class.
+ * </p>
+ */
+@Slf4j
+public class BatchBagValidator {
+    @NonNull
+    private final RuleEngine ruleEngine;
+    @NonNull
+    private final List<NumberedRule> rules;
+    private final int maxParallelBags;
+    private final ExecutorService executorService;
+
+    /**
+     * Creates a batch validator.
+     *
+     * @param ruleEngine      the rule engine to validate each bag with
+     * @param rules           the rule set
+     * @param maxParallelBags the maximum number of bags to validate at the same time; defaults to 1
+     * @param executorService the executor to validate the bags on; if null, a pool with <code>maxParallelBags</code> threads is created for each call to
+     *                        {@link #validateBags(Iterator, BagValidationListener)} and shut down at the end of it
+     */
+    @Builder
+    private BatchBagValidator(@NonNull RuleEngine ruleEngine, @NonNull List<NumberedRule> rules, int maxParallelBags, ExecutorService executorService) {
+        this.ruleEngine = ruleEngine;
+        this.rules = List.copyOf(rules);
+        this.maxParallelBags = Math.max(1, maxParallelBags);
+        this.executorService = executorService;
+    }
+
+    /**
+     * Validates the bags in the stream. See {@link #validateBags(Iterator, BagValidationListener)}.
+     *
+     * @param bags     the bags to validate
+     * @param listener the listener that receives the outcome of each bag
+     * @throws RuleEngineConfigurationException if the rule set is not consistent
+     * @throws InterruptedException             if the calling thread is interrupted while waiting for a validation slot
+     */
+    public void validateBags(Stream<Path> bags, BagValidationListener listener) throws RuleEngineConfigurationException, InterruptedException {
+        validateBags(bags.iterator(), listener);
+    }
+
+    /**
+     * Validates the bags returned by the iterator. The rule set is checked once, before the first bag is validated. This method returns when all bags have been validated and the listener has been
+     * notified of each of them.
+     *
+     * @param bags     the bags to validate
+     * @param listener the listener that receives the outcome of each bag
+     * @throws RuleEngineConfigurationException if the rule set is not consistent
+     * @throws InterruptedException             if the calling thread is interrupted while waiting for a validation slot
+     */
+    public void validateBags(Iterator<Path> bags, BagValidationListener listener) throws RuleEngineConfigurationException, InterruptedException {
+        ruleEngine.validateRuleSet(rules);
+
+        var executor = executorService == null ? Executors.newFixedThreadPool(maxParallelBags) : executorService;
+        var slots = new Semaphore(maxParallelBags);
+
+        try {
+            while (bags.hasNext()) {
+                slots.acquire();
+                var bag = bags.next();
+
+                try {
+                    executor.execute(() -> {
+                        try {
+                            validateBag(bag, listener);
+                        }
+                        finally {
+                            slots.release();
+                        }
+                    });
+                }
+                catch (RuntimeException e) {
+                    slots.release();
+                    throw e;
+                }
+            }
+
+            // wait for the bags that are still being validated
+            slots.acquire(maxParallelBags);
+            slots.release(maxParallelBags);
+        }
+        finally {
+            if (executorService == null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void validateBag(Path bag, BagValidationListener listener) {
+        List<RuleValidationResult> results;
+
+        try {
+            results = ruleEngine.validateBag(bag, rules);
+        }
+        catch (Exception e) {
+            log.debug("Validation of bag {} could not be completed", bag, e);
+            listener.onError(bag, e);
+            return;
+        }
+
+        listener.onValidated(bag, results);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A {@link BagValidatorRule} that declares which files of the bag it reads. If the rule engine is configured with a {@link RuleResultCache}, it computes a fingerprint of these inputs and
+ * reuses the result of an earlier validation with the same fingerprint instead of executing the rule again. A rule may only implement this interface if its result depends on nothing but the
+ * declared inputs.
+ */
+public interface CacheableBagValidatorRule extends BagValidatorRule {
+
+    /**
+     * Returns the files and directories that this rule reads, relative to the bag directory. A directory stands for all files below it.
+     *
+     * @return the inputs of the rule
+     */
+    List<Path> getInputs();
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import java.nio.file.Path;
+
+/**
+ * A {@link BagValidatorRule} that reads the artefacts of the bag through a {@link BagValidationContext}. The rule engine passes the same context to all rules that validate the same bag, so that
+ * manifests, tag files and XML documents are read and parsed only once.
+ */
+@FunctionalInterface
+public interface ContextualBagValidatorRule extends BagValidatorRule {
+
+    /**
+     * Validate the bag in <code>context</code> against this rule.
+     *
+     * @param context the context of the bag being validated
+     * @return the result
+     * @throws Exception if the validation could not be run
+     */
+    RuleResult validate(BagValidationContext context) throws Exception;
+
+    /**
+     * Validate the bag at <code>path</code> against this rule, using a context that is not shared with other rules.
+     *
+     * @param path the path of the bag
+     * @return the result
+     * @throws Exception if the validation could not be run
+     */
+    @Override
+    default RuleResult validate(Path path) throws Exception {
+        return validate(new BagValidationContext(path));
+    }
+}
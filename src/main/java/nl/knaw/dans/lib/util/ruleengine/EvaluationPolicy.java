@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Determines when the {@link RuleEngine} may stop validating a bag because its outcome has been decided. Rules that have not been executed at that point are reported with status
+ * {@link RuleValidationResult.RuleValidationResultStatus#CANCELLED}. Independent of the policy, the failure of a rule that is marked as critical (see {@link NumberedRule#isCritical()}) always
+ * decides the outcome.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class EvaluationPolicy {
+    /**
+     * The number of failed rules after which the validation stops. Rules that timed out count as failed.
+     */
+    private final int maxFailures;
+
+    private EvaluationPolicy(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * Execute every rule that can be executed, regardless of the number of failures. This is the default.
+     *
+     * @return the policy
+     */
+    public static EvaluationPolicy runAll() {
+        return new EvaluationPolicy(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Stop at the first failed rule.
+     *
+     * @return the policy
+     */
+    public static EvaluationPolicy failFast() {
+        return new EvaluationPolicy(1);
+    }
+
+    /**
+     * Stop as soon as <code>maxFailures</code> rules have failed.
+     *
+     * @param maxFailures the number of failed rules after which to stop
+     * @return the policy
+     */
+    public static EvaluationPolicy stopAfterFailures(int maxFailures) {
+        if (maxFailures < 1) {
+            throw new IllegalArgumentException("maxFailures must be at least 1, but was " + maxFailures);
+        }
+        return new EvaluationPolicy(maxFailures);
+    }
+
+    /**
+     * Returns whether the outcome of the validation is decided after the given number of failures.
+     *
+     * @param failures the number of rules that have failed so far
+     * @return true if no further rules need to be executed
+     */
+    public boolean isDecided(int failures) {
+        return failures >= maxFailures;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link RuleResultCache} that keeps at most a fixed number of results in memory, evicting the least recently used result when it is full.
+ */
+public class InMemoryRuleResultCache implements RuleResultCache {
+    private final Map<String, RuleResult> results;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the maximum number of results to keep
+     */
+    public InMemoryRuleResultCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1, but was " + maxEntries);
+        }
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RuleResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized RuleResult get(String key) {
+        return results.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, RuleResult result) {
+        results.put(key, result);
+    }
+
+    /**
+     * Returns the number of results in the cache.
+     *
+     * @return the number of results
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+}
@@ -21,7 +21,8 @@ import lombok.RequiredArgsConstructor;
 import java.util.List;
 
 /**
- * A wrapper around a {@link BagValidatorRule} that adds a rule number and links to dependent rules.
+ * A wrapper around a {@link BagValidatorRule} that adds a rule number and links to dependent rules. A rule can be marked as critical, meaning that the validation of a bag stops as soon as the rule
+ * fails (see {@link EvaluationPolicy}).
  */
 @Data
 @RequiredArgsConstructor
@@ -29,8 +30,13 @@ public class NumberedRule {
     private final String number;
     private final BagValidatorRule rule;
     private final List<String> dependencies;
+    private final boolean critical;
 
     public NumberedRule(String number, BagValidatorRule rule) {
         this(number, rule, null);
     }
+
+    public NumberedRule(String number, BagValidatorRule rule, List<String> dependencies) {
+        this(number, rule, dependencies, false);
+    }
 }
@@ -16,6 +16,7 @@
 package nl.knaw.dans.lib.util.ruleengine;
 
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 
 /**
@@ -24,7 +25,8 @@ import java.util.List;
 public interface RuleEngine {
 
     /**
-     * Check that a rule set is internally consistent. It checks for duplicate rules and for unresolved dependencies.
+     * Check that a rule set is internally consistent. It checks for duplicate rules, for unresolved dependencies and for circular dependencies
+     * (including rules that depend on themselves).
      *
      * @param rules the rule set
      * @throws RuleEngineConfigurationException if the rule set is not consistent
@@ -41,4 +43,18 @@ public interface RuleEngine {
      */
     List<RuleValidationResult> validateBag(Path bag, List<NumberedRule> rules) throws Exception;
 
+    /**
+     * Validates the given bag against a given rule set and returns the results as a report, which can be rendered as text or serialized, e.g. to JSON.
+     *
+     * @param bag   the bag to validate
+     * @param rules the rule set
+     * @return the validation report
+     * @throws Exception if the validation could not be completed successfully
+     */
+    default BagValidationReport validateBagWithReport(Path bag, List<NumberedRule> rules) throws Exception {
+        var start = System.nanoTime();
+        var results = validateBag(bag, rules);
+        return new BagValidationReport(bag, results, Duration.ofNanos(System.nanoTime() - start));
+    }
+
 }
@@ -15,20 +15,96 @@
  */
 package nl.knaw.dans.lib.util.ruleengine;
 
+import com.codahale.metrics.MetricRegistry;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class RuleEngineImpl implements RuleEngine {
     private static final Logger log = LoggerFactory.getLogger(RuleEngineImpl.class);
+    private static final String RULES_TIMER_NAME = MetricRegistry.name(RuleEngine.class, "rules");
+    private static final String BAGS_TIMER_NAME = MetricRegistry.name(RuleEngine.class, "bags");
+
+    private final EvaluationPolicy evaluationPolicy;
+    private final MetricRegistry metricRegistry;
+    private final boolean reportTimings;
+    private final Duration ruleTimeout;
+    private final Duration bagTimeout;
+    private final ExecutorService executorService;
+    private final int maxParallelRules;
+    private final RuleResultCache resultCache;
+    private final RuleInputFingerprint.Mode fingerprintMode;
+
+    public RuleEngineImpl() {
+        this(null, null, false, null, null, null, 0, null, null);
+    }
+
+    /**
+     * Creates a rule engine.
+     *
+     * @param evaluationPolicy determines when the validation of a bag may stop; defaults to {@link EvaluationPolicy#runAll()}
+     * @param metricRegistry   if not null, the execution time of each rule is recorded in a timer named <code>nl.knaw.dans.lib.util.ruleengine.RuleEngine.rules.&lt;rule number&gt;</code> and the
+     *                         total validation time of each bag in a timer named <code>nl.knaw.dans.lib.util.ruleengine.RuleEngine.bags</code>
+     * @param reportTimings    whether to include the execution time of each rule in the validation report that is logged
+     * @param ruleTimeout      the maximum time a single rule may take; a rule that takes longer is interrupted and reported with status
+     *                         {@link RuleValidationResult.RuleValidationResultStatus#TIMEOUT}; null for no limit
+     * @param bagTimeout       the maximum time the validation of one bag may take; the rule that is running when it expires is interrupted and reported with status
+     *                         {@link RuleValidationResult.RuleValidationResultStatus#TIMEOUT}, the rules that have not yet run are reported as
+     *                         {@link RuleValidationResult.RuleValidationResultStatus#CANCELLED}; null for no limit
+     * @param executorService  the executor to run the rules on. If null, rules run on the calling thread, unless a timeout is configured or maxParallelRules is greater than 1, in which case
+     *                         they run on an internal pool that creates a new thread whenever all existing threads are busy, so that rules that ignore interruption cannot block the validation
+     *                         of other bags. Note that the executor must not be the one that runs the calls to {@link #validateBag(Path, List)}, as a bounded executor could then deadlock.
+     * @param maxParallelRules the maximum number of rules of one bag that may run at the same time; defaults to 1. Rules only run in parallel if their dependencies allow it, and they share the
+     *                         {@link BagValidationContext}, so they must be thread-safe.
+     * @param resultCache      if not null, the results of {@link CacheableBagValidatorRule}s are stored in this cache, and a rule is not executed again if the cache contains a result for the
+     *                         same rule number and the same fingerprint of its inputs. Results that carry an exception are not cached.
+     * @param fingerprintMode  how to compute the fingerprint of the inputs of a rule; defaults to {@link RuleInputFingerprint.Mode#METADATA}
+     */
+    @Builder
+    private RuleEngineImpl(EvaluationPolicy evaluationPolicy, MetricRegistry metricRegistry, boolean reportTimings, Duration ruleTimeout, Duration bagTimeout, ExecutorService executorService,
+        int maxParallelRules, RuleResultCache resultCache, RuleInputFingerprint.Mode fingerprintMode) {
+        this.evaluationPolicy = evaluationPolicy == null ? EvaluationPolicy.runAll() : evaluationPolicy;
+        this.metricRegistry = metricRegistry;
+        this.reportTimings = reportTimings;
+        this.ruleTimeout = ruleTimeout;
+        this.bagTimeout = bagTimeout;
+        this.maxParallelRules = Math.max(1, maxParallelRules);
+        this.resultCache = resultCache;
+        this.fingerprintMode = fingerprintMode == null ? RuleInputFingerprint.Mode.METADATA : fingerprintMode;
+        this.executorService = executorService == null && (ruleTimeout != null || bagTimeout != null || this.maxParallelRules > 1) ? createDefaultExecutorService() : executorService;
+    }
+
+    private static ExecutorService createDefaultExecutorService() {
+        var threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "rule-engine-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     @Override
     public void validateRuleSet(List<NumberedRule> rules) throws RuleEngineConfigurationException {
@@ -49,74 +125,271 @@ public class RuleEngineImpl implements RuleEngine {
                 "Some rules depend on other rules that do not exist: %s", String.join(", ", unresolvedDependencies)
             ));
         }
+
+        // make sure the dependencies do not form a cycle, because the rules in it could never be executed
+        var dependencyCycle = getDependencyCycle(rules);
+
+        if (!dependencyCycle.isEmpty()) {
+            throw new RuleEngineConfigurationException(String.format(
+                "Circular dependency found (a -> b means a depends on b): %s", String.join(" -> ", dependencyCycle)
+            ));
+        }
     }
 
     @Override
     public List<RuleValidationResult> validateBag(Path bag, List<NumberedRule> rules) throws Exception {
         final var ruleResults = new HashMap<String, RuleValidationResult>();
         final var rulesToExecute = rules;
+        final var context = new BagValidationContext(bag);
+        final var bagStart = System.nanoTime();
+        final var bagDeadline = bagTimeout == null ? null : bagStart + bagTimeout.toNanos();
+        final var finishedRules = new LinkedBlockingQueue<RunningRule>();
+        final var runningRules = new ArrayList<RunningRule>();
 
         // create a copy, because we will modify this list
         var remainingRules = new ArrayList<>(rulesToExecute);
+        var failures = 0;
+        var outcomeDecided = false;
+
+        try {
+            while (true) {
+                startExecutableRules(remainingRules, runningRules, ruleResults, context, finishedRules);
+
+                if (runningRules.isEmpty()) {
+                    if (!remainingRules.isEmpty()) {
+                        log.warn("No rules executed this round, but there are still rules to be checked; most likely a dependency configuration error!");
+
+                        for (var rule : remainingRules) {
+                            log.warn(" - Rule {} is yet to be executed", rule);
+                        }
+                    }
+
+                    break;
+                }
+
+                var newResults = awaitRunningRules(bag, runningRules, finishedRules, bagDeadline);
 
-        while (!remainingRules.isEmpty()) {
-            var toRemove = new HashSet<NumberedRule>();
+                for (var result : newResults) {
+                    ruleResults.put(result.getRule().getNumber(), result.getResult());
+
+                    if (isFailed(result.getResult())) {
+                        failures++;
+
+                        if (result.getRule().isCritical() || evaluationPolicy.isDecided(failures)) {
+                            log.debug("Outcome decided after failure of rule {}; cancelling the remaining rules", result.getRule().getNumber());
+                            outcomeDecided = true;
+                        }
+                    }
+                }
+
+                if (bagDeadline != null && System.nanoTime() - bagDeadline >= 0) {
+                    log.warn("Validation of bag {} did not complete within {}; cancelling the remaining rules", bag, bagTimeout);
+                    outcomeDecided = true;
+                }
+
+                if (outcomeDecided) {
+                    for (var runningRule : runningRules) {
+                        runningRule.cancel();
+                        ruleResults.put(runningRule.getRule().getNumber(), new RuleValidationResult(runningRule.getRule().getNumber(), RuleValidationResult.RuleValidationResultStatus.CANCELLED));
+                    }
+
+                    runningRules.clear();
+
+                    for (var rule : remainingRules) {
+                        ruleResults.put(rule.getNumber(), new RuleValidationResult(rule.getNumber(), RuleValidationResult.RuleValidationResultStatus.CANCELLED));
+                    }
+
+                    break;
+                }
+            }
+        }
+        finally {
+            // only non-empty if a rule threw an exception or the calling thread was interrupted
+            for (var runningRule : runningRules) {
+                runningRule.cancel();
+            }
+        }
 
-            for (var rule : remainingRules) {
+        var bagDuration = Duration.ofNanos(System.nanoTime() - bagStart);
+        recordTime(BAGS_TIMER_NAME, null, bagDuration);
+        log.debug("Validated bag {} in {} ms", bag, bagDuration.toMillis());
+
+        var results = rulesToExecute.stream()
+            .map(rule -> ruleResults.get(rule.getNumber()))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+
+        // TODO this does not belong here, but it would be nice to log the results of the validation
+        if (log.isInfoEnabled()) {
+            reportOnBag(bag, rulesToExecute, ruleResults, bagDuration);
+        }
+
+        return results;
+    }
+
+    // goes through the remaining rules in order, skipping the rules whose dependencies were not successful and starting the rules whose dependencies were, until the maximum number of
+    // parallel rules is reached; repeats this until nothing changes, because skipping a rule may cause rules earlier in the list to be skipped as well
+    private void startExecutableRules(List<NumberedRule> remainingRules, List<RunningRule> runningRules, Map<String, RuleValidationResult> ruleResults, BagValidationContext context,
+        BlockingQueue<RunningRule> finishedRules) {
+        var changed = true;
+
+        while (changed) {
+            changed = false;
+            var iterator = remainingRules.iterator();
+
+            while (iterator.hasNext()) {
+                var rule = iterator.next();
                 var number = rule.getNumber();
 
                 // will never be processed, so skip it and remove it from the remaining rules
                 if (shouldBeSkipped(rule, ruleResults)) {
-                    log.debug("Skipping task {} because dependencies are not successful", rule.getNumber());
+                    log.debug("Skipping task {} because dependencies are not successful", number);
                     ruleResults.put(number, new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.SKIPPED));
-                    toRemove.add(rule);
+                    iterator.remove();
+                    changed = true;
                 }
                 else if (canBeExecuted(rule, ruleResults)) {
-                    log.debug("Executing task {}", rule.getNumber());
-                    var response = rule.getRule().validate(bag);
-
-                    log.debug("Task result: {}", response.getStatus());
-                    RuleValidationResult ruleValidationResult = switch (response.getStatus()) {
-                        case SUCCESS -> new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.SUCCESS);
-                        case SKIP_DEPENDENCIES -> new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.SUCCESS, true);
-                        case ERROR -> new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.FAILURE, formatErrorMessages(response.getErrorMessages()));
-                    };
-
-                    ruleResults.put(number, ruleValidationResult);
-
-                    if (response.getException() != null) {
-                        // Log this at debug level, as an Exception that was caught by the rule implementation
-                        // is not necessarily an error in the rule engine itself, and will be reported as part of the RuleValidationResult
-                        log.debug("Rule provided an exception while executing", response.getException());
+                    if (runningRules.size() >= maxParallelRules) {
+                        continue;
                     }
 
-                    toRemove.add(rule);
+                    log.debug("Executing task {}", number);
+                    var runningRule = new RunningRule(rule, () -> invokeRule(rule, context), finishedRules);
+                    runningRules.add(runningRule);
+                    iterator.remove();
+                    changed = true;
+
+                    if (executorService == null) {
+                        runningRule.run();
+                    }
+                    else {
+                        executorService.execute(runningRule);
+                    }
                 }
                 else {
                     log.debug("Skipping rule {} because its dependencies have not yet executed", rule);
                 }
             }
+        }
+    }
 
-            remainingRules.removeAll(toRemove);
+    // waits until at least one running rule has finished or has exceeded its deadline, and returns the results of those rules
+    private List<FinishedRule> awaitRunningRules(Path bag, List<RunningRule> runningRules, BlockingQueue<RunningRule> finishedRules, Long bagDeadline) throws Exception {
+        var results = new ArrayList<FinishedRule>();
+        var deadline = bagDeadline;
 
-            if (toRemove.isEmpty()) {
-                log.warn("No rules executed this round, but there are still rules to be checked; most likely a dependency configuration error!");
+        // a rule that is still waiting for a thread of the executor has no deadline yet; it wakes this thread up when it starts
+        for (var runningRule : runningRules) {
+            if (ruleTimeout != null && runningRule.isStarted() && (deadline == null || runningRule.getStart() + ruleTimeout.toNanos() - deadline < 0)) {
+                deadline = runningRule.getStart() + ruleTimeout.toNanos();
+            }
+        }
 
-                for (var rule : remainingRules) {
-                    log.warn(" - Rule {} is yet to be executed", rule);
-                }
+        var finished = deadline == null ? finishedRules.take() : finishedRules.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
 
-                break;
+        while (finished != null) {
+            // rules that were cancelled may still end up in the queue, and rules that have only started are in it as well
+            if (finished.isDone() && runningRules.remove(finished)) {
+                results.add(new FinishedRule(finished.getRule(), toValidationResult(finished)));
             }
+            finished = finishedRules.poll();
         }
 
-        // TODO this does not belong here, but it would be nice to log the results of the validation
-        reportOnBag(rulesToExecute, ruleResults);
+        var now = System.nanoTime();
+        var bagTimedOut = bagDeadline != null && now - bagDeadline >= 0;
+        var iterator = runningRules.iterator();
+
+        while (iterator.hasNext()) {
+            var runningRule = iterator.next();
+            var ruleTimedOut = ruleTimeout != null && runningRule.isStarted() && now - (runningRule.getStart() + ruleTimeout.toNanos()) >= 0;
+
+            if (ruleTimedOut || bagTimedOut) {
+                var number = runningRule.getRule().getNumber();
+                var timeout = ruleTimedOut ? ruleTimeout : bagTimeout;
+                runningRule.cancel();
+                iterator.remove();
+                log.warn("Rule {} did not complete within the {} timeout of {} for bag {}; it has been interrupted", number, ruleTimedOut ? "rule" : "bag", timeout, bag);
+                var result = new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.TIMEOUT,
+                    String.format("Rule did not complete within the %s timeout of %s", ruleTimedOut ? "rule" : "bag", timeout));
+                var duration = runningRule.getElapsed(now);
+                results.add(new FinishedRule(runningRule.getRule(), result.withDuration(duration)));
+                recordTime(RULES_TIMER_NAME, number, duration);
+            }
+        }
 
-        return rulesToExecute.stream()
-            .map(rule -> ruleResults.get(rule.getNumber()))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+        return results;
+    }
+
+    private RuleValidationResult toValidationResult(RunningRule runningRule) throws Exception {
+        var number = runningRule.getRule().getNumber();
+        RuleResult response;
+
+        try {
+            response = runningRule.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+
+        var duration = Duration.ofNanos(runningRule.getEnd() - runningRule.getStart());
+        recordTime(RULES_TIMER_NAME, number, duration);
+
+        log.debug("Task result: {}", response.getStatus());
+        RuleValidationResult ruleValidationResult = switch (response.getStatus()) {
+            case SUCCESS -> new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.SUCCESS);
+            case SKIP_DEPENDENCIES -> new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.SUCCESS, true);
+            case ERROR -> new RuleValidationResult(number, RuleValidationResult.RuleValidationResultStatus.FAILURE, response.getViolations());
+        };
+
+        if (response.getException() != null) {
+            // Log this at debug level, as an Exception that was caught by the rule implementation
+            // is not necessarily an error in the rule engine itself, and will be reported as part of the RuleValidationResult
+            log.debug("Rule provided an exception while executing", response.getException());
+        }
+
+        return ruleValidationResult.withDuration(duration);
+    }
+
+    private void recordTime(String timerName, String ruleNumber, Duration duration) {
+        if (metricRegistry != null) {
+            metricRegistry.timer(MetricRegistry.name(timerName, ruleNumber)).update(duration);
+        }
+    }
+
+    private RuleResult invokeRule(NumberedRule rule, BagValidationContext context) throws Exception {
+        if (resultCache != null && rule.getRule() instanceof CacheableBagValidatorRule cacheableRule) {
+            var key = rule.getNumber() + "@" + RuleInputFingerprint.compute(context.getBagDir(), cacheableRule.getInputs(), fingerprintMode);
+            var cachedResult = resultCache.get(key);
+
+            if (cachedResult != null) {
+                log.debug("Using cached result for rule {}", rule.getNumber());
+                return cachedResult;
+            }
+
+            var result = invokeRuleImplementation(rule, context);
+            // a result with an exception is caused by the circumstances of this run, e.g. an I/O error, rather than by the inputs of the rule
+            if (result.getException() == null) {
+                resultCache.put(key, result);
+            }
+            return result;
+        }
+
+        return invokeRuleImplementation(rule, context);
+    }
+
+    private static RuleResult invokeRuleImplementation(NumberedRule rule, BagValidationContext context) throws Exception {
+        if (rule.getRule() instanceof ContextualBagValidatorRule contextualRule) {
+            return contextualRule.validate(context);
+        }
+
+        return rule.getRule().validate(context.getBagDir());
+    }
+
+    private boolean isFailed(RuleValidationResult result) {
+        return RuleValidationResult.RuleValidationResultStatus.FAILURE.equals(result.getStatus()) || RuleValidationResult.RuleValidationResultStatus.TIMEOUT.equals(result.getStatus());
     }
 
     // returns true if all dependencies are marked as SUCCESS
@@ -125,9 +398,8 @@ public class RuleEngineImpl implements RuleEngine {
             for (var dependency : rule.getDependencies()) {
                 var result = results.get(dependency);
 
-                // if the parent was skipped or failed, return true
-                if (result == null || RuleValidationResult.RuleValidationResultStatus.SKIPPED.equals(result.getStatus()) || RuleValidationResult.RuleValidationResultStatus.FAILURE.equals(
-                    result.getStatus())) {
+                // if the parent was skipped, failed or timed out, return false
+                if (result == null || RuleValidationResult.RuleValidationResultStatus.SKIPPED.equals(result.getStatus()) || isFailed(result)) {
                     return false;
                 }
             }
@@ -143,9 +415,8 @@ public class RuleEngineImpl implements RuleEngine {
                 var result = results.get(dependency);
 
                 if (result != null) {
-                    // if the parent was skipped or failed, return true
-                    if (RuleValidationResult.RuleValidationResultStatus.SKIPPED.equals(result.getStatus()) || RuleValidationResult.RuleValidationResultStatus.FAILURE.equals(result.getStatus())
-                        || result.isShouldSkipDependencies()) {
+                    // if the parent was skipped, failed or timed out, return true
+                    if (RuleValidationResult.RuleValidationResultStatus.SKIPPED.equals(result.getStatus()) || isFailed(result) || result.isShouldSkipDependencies()) {
                         return true;
                     }
                 }
@@ -155,44 +426,16 @@ public class RuleEngineImpl implements RuleEngine {
         return false;
     }
 
-    private String padLeft(String s, int amount) {
-        return String.format("%" + amount + "s", s);
-    }
+    private void reportOnBag(Path bag, List<NumberedRule> rules, Map<String, RuleValidationResult> ruleResults, Duration bagDuration) {
+        // rules that never got a result because of a dependency configuration error are reported as skipped
+        var results = new ArrayList<RuleValidationResult>(rules.size());
 
-    private void reportOnBag(List<NumberedRule> rules, Map<String, RuleValidationResult> ruleResults) {
-        var maxRuleLength = rules.stream()
-            .map(r -> r.getNumber().length())
-            .max(Integer::compare)
-            .orElse(0);
-
-        var resultsAsString = rules.stream()
-            .map(rule -> {
-                var result = ruleResults.get(rule.getNumber());
-                var resultStatus = result == null ? RuleValidationResult.RuleValidationResultStatus.SKIPPED : result.getStatus();
-                var padding = maxRuleLength - rule.getNumber().length() + 1 + resultStatus.toString().length();
-
-                if (resultStatus.equals(RuleValidationResult.RuleValidationResultStatus.FAILURE)) {
-                    return String.format("! Rule %s: %s - %s",
-                        rule.getNumber(), padLeft(resultStatus.toString(), padding), result.getErrorMessage());
-                }
-                else {
-                    return String.format("! Rule %s: %s",
-                        rule.getNumber(), padLeft(resultStatus.toString(), padding));
-                }
-
-            })
-            .map(s -> s.replaceAll("\n", "\n!"))
-            .collect(Collectors.joining("\n"));
-
-        log.info("Bag validation report: \n{}", resultsAsString);
-    }
-
-    private String formatErrorMessages(List<String> errorMessages) {
-        if (errorMessages.size() == 1) {
-            return errorMessages.get(0);
+        for (var rule : rules) {
+            var result = ruleResults.get(rule.getNumber());
+            results.add(result == null ? new RuleValidationResult(rule.getNumber(), RuleValidationResult.RuleValidationResultStatus.SKIPPED) : result);
         }
 
-        return String.join("\n", errorMessages);
+        log.info("Bag validation report: \n{}", new BagValidationReport(bag, results, bagDuration).render(reportTimings));
     }
 
     // find any rule that depends on a rule that doesn't exist
@@ -203,7 +446,7 @@ public class RuleEngineImpl implements RuleEngine {
             .map(NumberedRule::getNumber)
             .collect(Collectors.toSet());
 
-        // this does not check for circular dependencies or self-references
+        // circular dependencies and self-references are checked separately by getDependencyCycle
         for (var rule : rules) {
             if (rule.getDependencies() != null && !keys.containsAll(rule.getDependencies())) {
                 unresolved.add(rule.getNumber());
@@ -213,6 +456,62 @@ public class RuleEngineImpl implements RuleEngine {
         return unresolved;
     }
 
+    // find a cycle in the dependency graph (a self-reference being the shortest possible cycle), using an iterative depth-first search that visits
+    // each rule and each dependency at most once; returns the rule numbers along the cycle, starting and ending with the same rule, or an empty list
+    // if there is no cycle. This assumes all dependencies are resolved.
+    private List<String> getDependencyCycle(List<NumberedRule> rules) {
+        var dependencies = new HashMap<String, List<String>>();
+
+        for (var rule : rules) {
+            dependencies.put(rule.getNumber(), rule.getDependencies() == null ? List.of() : rule.getDependencies());
+        }
+
+        var finished = new HashSet<String>();
+        var path = new ArrayList<String>();
+        var positionOnPath = new HashMap<String, Integer>();
+        var pendingDependencies = new ArrayDeque<Iterator<String>>();
+
+        for (var rule : rules) {
+            if (finished.contains(rule.getNumber())) {
+                continue;
+            }
+
+            positionOnPath.put(rule.getNumber(), path.size());
+            path.add(rule.getNumber());
+            pendingDependencies.push(dependencies.get(rule.getNumber()).iterator());
+
+            while (!pendingDependencies.isEmpty()) {
+                var iterator = pendingDependencies.peek();
+
+                if (iterator.hasNext()) {
+                    var dependency = iterator.next();
+                    var position = positionOnPath.get(dependency);
+
+                    // the dependency is already on the current path, so we have come full circle
+                    if (position != null) {
+                        var cycle = new ArrayList<>(path.subList(position, path.size()));
+                        cycle.add(dependency);
+                        return cycle;
+                    }
+
+                    if (!finished.contains(dependency)) {
+                        positionOnPath.put(dependency, path.size());
+                        path.add(dependency);
+                        pendingDependencies.push(dependencies.getOrDefault(dependency, List.of()).iterator());
+                    }
+                }
+                else {
+                    pendingDependencies.pop();
+                    var number = path.remove(path.size() - 1);
+                    positionOnPath.remove(number);
+                    finished.add(number);
+                }
+            }
+        }
+
+        return List.of();
+    }
+
     // find any rule that has a number that is present multiple times in the list
     private List<String> getDuplicateRules(List<NumberedRule> rules) {
         var duplicates = new ArrayList<String>();
@@ -233,4 +532,51 @@ public class RuleEngineImpl implements RuleEngine {
 
         return duplicates;
     }
+
+    // a rule that has been handed to the executor; it puts itself in the queue of finished rules when it starts, so that its deadline is taken into account, and when it is done
+    @Getter
+    private static class RunningRule extends FutureTask<RuleResult> {
+        private final NumberedRule rule;
+        private final BlockingQueue<RunningRule> finishedRules;
+        private volatile long start;
+        private volatile boolean started;
+        private volatile long end;
+
+        RunningRule(NumberedRule rule, Callable<RuleResult> invocation, BlockingQueue<RunningRule> finishedRules) {
+            super(invocation);
+            this.rule = rule;
+            this.finishedRules = finishedRules;
+        }
+
+        @Override
+        public void run() {
+            // time spent waiting for a thread of the executor does not count against the rule
+            start = System.nanoTime();
+            started = true;
+            finishedRules.add(this);
+            super.run();
+        }
+
+        // the time the rule has been running, or zero if it has not started
+        Duration getElapsed(long now) {
+            return started ? Duration.ofNanos(now - start) : Duration.ZERO;
+        }
+
+        @Override
+        protected void done() {
+            end = System.nanoTime();
+            finishedRules.add(this);
+        }
+
+        // interrupts the rule if it is still running
+        void cancel() {
+            cancel(true);
+        }
+    }
+
+    @Value
+    private static class FinishedRule {
+        NumberedRule rule;
+        RuleValidationResult result;
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes a fingerprint of the inputs of a {@link CacheableBagValidatorRule}, i.e. a SHA-256 hash over the paths of the input files and either their sizes and modification times or their
+ * contents.
+ */
+public class RuleInputFingerprint {
+
+    public enum Mode {
+        /**
+         * Use the size and last modification time of each file. This is cheap, but only recognizes a bag that is validated again at the same location, so the absolute path of the bag is part of
+         * the fingerprint.
+         */
+        METADATA,
+        /**
+         * Use the contents of each file. This reads every input file, but also recognizes unchanged files in a bag that has been resubmitted at a different location.
+         */
+        CONTENT
+    }
+
+    private RuleInputFingerprint() {
+    }
+
+    /**
+     * Computes the fingerprint of the given inputs.
+     *
+     * @param bagDir the bag directory
+     * @param inputs the files and directories to include, relative to the bag directory
+     * @param mode   what to include of each file
+     * @return the fingerprint as a hexadecimal string
+     * @throws IOException if an input could not be read
+     */
+    public static String compute(Path bagDir, List<Path> inputs, Mode mode) throws IOException {
+        var digest = newDigest();
+
+        if (mode == Mode.METADATA) {
+            update(digest, bagDir.toAbsolutePath().normalize().toString());
+        }
+
+        var sortedInputs = new ArrayList<>(inputs);
+        sortedInputs.sort(null);
+
+        for (var input : sortedInputs) {
+            var path = bagDir.resolve(input).normalize();
+
+            if (!Files.exists(path)) {
+                update(digest, "missing:" + input);
+            }
+            else if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    for (var file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                        updateWithFile(digest, bagDir, file, mode);
+                    }
+                }
+            }
+            else {
+                updateWithFile(digest, bagDir, path, mode);
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void updateWithFile(MessageDigest digest, Path bagDir, Path file, Mode mode) throws IOException {
+        var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        update(digest, "file:" + bagDir.relativize(file));
+        update(digest, Long.toString(attributes.size()));
+
+        if (mode == Mode.METADATA) {
+            update(digest, Long.toString(attributes.lastModifiedTime().toMillis()));
+        }
+        else {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                var buffer = new byte[64 * 1024];
+                int n;
+
+                while ((n = inputStream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+    }
+
+    // the separator prevents different sequences of values from producing the same input to the digest
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -19,7 +19,9 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Getter
 @ToString
@@ -31,21 +33,39 @@ public class RuleResult {
         ERROR,
     }
 
+    private static final String NO_MESSAGE = "(no message)";
+
     private final List<String> errorMessages;
+    /**
+     * The violations found by the rule. If the rule only provided error messages, each message is wrapped in a violation without code or location.
+     */
+    private final List<Violation> violations;
     private final Status status;
     private Throwable exception;
 
     protected RuleResult(Status status, List<String> errorMessages) {
+        this(status, errorMessages, (Throwable) null);
+    }
+
+    protected RuleResult(Status status, List<String> errorMessages, Throwable e) {
         this.status = status;
         this.errorMessages = errorMessages;
+        this.violations = errorMessages == null ? List.of() : errorMessages.stream().map(RuleResult::toViolation).collect(Collectors.toUnmodifiableList());
+        this.exception = e;
     }
 
-    protected RuleResult(Status status, List<String> errorMessages, Throwable e) {
+    private RuleResult(Status status, List<Violation> violations, List<String> errorMessages, Throwable e) {
         this.status = status;
+        this.violations = violations;
         this.errorMessages = errorMessages;
         this.exception = e;
     }
 
+    // rules written before violations existed may report null messages, which a violation does not accept
+    private static Violation toViolation(String errorMessage) {
+        return Violation.of(errorMessage == null ? NO_MESSAGE : errorMessage);
+    }
+
     public static RuleResult ok() {
         return new RuleResult(Status.SUCCESS, null);
     }
@@ -62,6 +82,28 @@ public class RuleResult {
         return new RuleResult(Status.ERROR, messages);
     }
 
+    /**
+     * Creates an error result from typed violations. The list is not copied, so it must not be modified afterwards.
+     *
+     * @param violations the violations
+     * @return the result
+     */
+    public static RuleResult violations(List<Violation> violations) {
+        return violations(violations, null);
+    }
+
+    /**
+     * Creates an error result from typed violations and the exception that caused them. The list is not copied, so it must not be modified afterwards.
+     *
+     * @param violations the violations
+     * @param e          the exception
+     * @return the result
+     */
+    public static RuleResult violations(List<Violation> violations, Throwable e) {
+        var messages = violations.stream().map(Violation::describe).collect(Collectors.toUnmodifiableList());
+        return new RuleResult(Status.ERROR, Collections.unmodifiableList(violations), messages, e);
+    }
+
     public static RuleResult skipDependencies() {
         return new RuleResult(Status.SKIP_DEPENDENCIES, null);
     }
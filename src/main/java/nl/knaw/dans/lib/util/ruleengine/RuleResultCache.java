@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+/**
+ * Cache of rule results, used by the {@link RuleEngine} to avoid re-executing {@link CacheableBagValidatorRule}s whose inputs have not changed. The keys are computed by the rule engine from the
+ * rule number and a fingerprint of the inputs of the rule (see {@link RuleInputFingerprint}). Implementations must be thread-safe.
+ */
+public interface RuleResultCache {
+
+    /**
+     * Returns the result stored under the given key.
+     *
+     * @param key the key
+     * @return the result, or null if there is none
+     */
+    RuleResult get(String key);
+
+    /**
+     * Stores a result under the given key.
+     *
+     * @param key    the key
+     * @param result the result
+     */
+    void put(String key, RuleResult result);
+}
@@ -19,6 +19,10 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
  * This object is used internally by the RuleEngine to keep track of the status of rules executed
  */
@@ -29,32 +33,78 @@ public class RuleValidationResult {
     public enum RuleValidationResultStatus {
         SUCCESS,
         FAILURE,
-        SKIPPED
+        SKIPPED,
+        /**
+         * The rule was not executed, because the outcome of the validation had already been decided by the {@link EvaluationPolicy} or by a critical rule.
+         */
+        CANCELLED,
+        /**
+         * The rule did not complete within the rule timeout or the bag timeout configured for the engine and was interrupted. Dependent rules are skipped, as they would be after a failure.
+         */
+        TIMEOUT
     }
 
     private final String number;
     private final RuleValidationResultStatus status;
     private final String errorMessage;
     private final boolean shouldSkipDependencies;
+    /**
+     * The violations that caused the rule to fail; empty if the rule did not fail. This is the list provided by the rule, not a copy.
+     */
+    private final List<Violation> violations;
+    /**
+     * The time it took to execute the rule, or null if the rule was not executed.
+     */
+    @EqualsAndHashCode.Exclude
+    private final Duration duration;
 
     public RuleValidationResult(String number, RuleValidationResultStatus status) {
-        this.number = number;
-        this.status = status;
-        this.errorMessage = null;
-        this.shouldSkipDependencies = false;
+        this(number, status, null, false, List.of(), null);
     }
 
     public RuleValidationResult(String number, RuleValidationResultStatus status, String errorMessage) {
-        this.number = number;
-        this.status = status;
-        this.errorMessage = errorMessage;
-        this.shouldSkipDependencies = false;
+        this(number, status, errorMessage, false, errorMessage == null ? List.of() : List.of(Violation.of(errorMessage)), null);
     }
 
     public RuleValidationResult(String number, RuleValidationResultStatus status, boolean shouldSkipDependencies) {
+        this(number, status, null, shouldSkipDependencies, List.of(), null);
+    }
+
+    /**
+     * Creates a result from the violations found by a rule. The error message consists of the descriptions of the violations, one per line.
+     *
+     * @param number     the rule number
+     * @param status     the status
+     * @param violations the violations
+     */
+    public RuleValidationResult(String number, RuleValidationResultStatus status, List<Violation> violations) {
+        this(number, status, formatErrorMessage(violations), false, violations, null);
+    }
+
+    private RuleValidationResult(String number, RuleValidationResultStatus status, String errorMessage, boolean shouldSkipDependencies, List<Violation> violations, Duration duration) {
         this.number = number;
         this.status = status;
-        this.errorMessage = null;
+        this.errorMessage = errorMessage;
         this.shouldSkipDependencies = shouldSkipDependencies;
+        this.violations = violations;
+        this.duration = duration;
+    }
+
+    private static String formatErrorMessage(List<Violation> violations) {
+        if (violations.size() == 1) {
+            return violations.get(0).describe();
+        }
+
+        return violations.stream().map(Violation::describe).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Returns a copy of this result with the given execution time.
+     *
+     * @param duration the time it took to execute the rule
+     * @return the copy
+     */
+    public RuleValidationResult withDuration(Duration duration) {
+        return new RuleValidationResult(number, status, errorMessage, shouldSkipDependencies, violations, duration);
     }
 }
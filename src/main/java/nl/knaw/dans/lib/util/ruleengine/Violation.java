@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.nio.file.Path;
+
+/**
+ * A violation of a rule found in a bag. Besides the human-readable message it carries a machine-readable code and, if applicable, the location of the violation, so that services can aggregate
+ * and index violations without parsing messages.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@Builder
+public class Violation {
+    /**
+     * A machine-readable code identifying the kind of violation, or null if the rule did not provide one.
+     */
+    private final String code;
+    /**
+     * The human-readable description of the violation.
+     */
+    @NonNull
+    private final String message;
+    /**
+     * The file in which the violation was found, relative to the bag directory, or null if it does not concern a specific file.
+     */
+    private final Path file;
+    /**
+     * The line in <code>file</code> at which the violation was found, or null if unknown.
+     */
+    private final Integer line;
+    /**
+     * The column in <code>line</code> at which the violation was found, or null if unknown.
+     */
+    private final Integer column;
+
+    /**
+     * Creates a violation with only a message.
+     *
+     * @param message the message
+     * @return the violation
+     */
+    public static Violation of(String message) {
+        return builder().message(message).build();
+    }
+
+    /**
+     * Creates a violation with a code and a message.
+     *
+     * @param code    the code
+     * @param message the message
+     * @return the violation
+     */
+    public static Violation of(String code, String message) {
+        return builder().code(code).message(message).build();
+    }
+
+    /**
+     * Returns the message, preceded by the location of the violation if it is known, e.g. <code>metadata/dataset.xml:12:5: element not allowed here</code>.
+     *
+     * @return the description
+     */
+    public String describe() {
+        if (file == null) {
+            return message;
+        }
+
+        var description = new StringBuilder(file.toString());
+
+        if (line != null) {
+            description.append(':').append(line);
+
+            if (column != null) {
+                description.append(':').append(column);
+            }
+        }
+
+        return description.append(": ").append(message).toString();
+    }
+}
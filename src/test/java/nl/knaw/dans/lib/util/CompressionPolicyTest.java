@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressionPolicyTest extends AbstractTestWithTestDir {
+
+    @Test
+    public void skipExtensions_should_not_compress_files_with_listed_extension_regardless_of_case() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.skipExtensions(Set.of("jpg", "zip"));
+
+        assertThat(policy.shouldCompress(Path.of("photo.JPG"), 1000)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("data/archive.zip"), 1000)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("text.txt"), 1000)).isTrue();
+        assertThat(policy.shouldCompress(Path.of("README"), 1000)).isTrue();
+    }
+
+    @Test
+    public void skipExtensions_should_not_compress_files_with_extension_listed_in_upper_case() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.skipExtensions(Set.of("JPG", "Zip"));
+
+        assertThat(policy.shouldCompress(Path.of("photo.jpg"), 1000)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("photo.JPG"), 1000)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("data/archive.zip"), 1000)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("text.txt"), 1000)).isTrue();
+    }
+
+    @Test
+    public void minimumSize_should_not_compress_files_smaller_than_threshold() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.minimumSize(100);
+
+        assertThat(policy.shouldCompress(Path.of("small.txt"), 99)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("large.txt"), 100)).isTrue();
+    }
+
+    @Test
+    public void probe_should_compress_text_but_not_random_data() throws Exception {
+        Files.createDirectories(testDir);
+        Path text = testDir.resolve("text.txt");
+        Files.writeString(text, "Hello, world! ".repeat(10000), StandardCharsets.UTF_8);
+        Path random = testDir.resolve("random.bin");
+        byte[] bytes = new byte[100000];
+        new Random(42).nextBytes(bytes);
+        Files.write(random, bytes);
+        CompressionPolicy policy = CompressionPolicy.probe(4096, 0.9);
+
+        assertThat(policy.shouldCompress(text, Files.size(text))).isTrue();
+        assertThat(policy.shouldCompress(random, Files.size(random))).isFalse();
+    }
+
+    @Test
+    public void and_should_compress_only_if_both_policies_agree() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.skipExtensions(Set.of("jpg")).and(CompressionPolicy.minimumSize(100));
+
+        assertThat(policy.shouldCompress(Path.of("photo.jpg"), 1000)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("small.txt"), 10)).isFalse();
+        assertThat(policy.shouldCompress(Path.of("large.txt"), 1000)).isTrue();
+    }
+}
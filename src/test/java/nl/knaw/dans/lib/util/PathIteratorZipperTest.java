@@ -19,15 +19,28 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -177,6 +190,314 @@ public class PathIteratorZipperTest extends AbstractTestWithTestDir {
         }
     }
 
+    @Test
+    public void zip_should_compress_files_in_parallel_on_executor_service_and_apply_limits_and_renames() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("parallel");
+        Files.createDirectories(inputDir);
+        for (int i = 1; i <= 5; i++) {
+            FileUtils.writeStringToFile(inputDir.resolve("file" + i + ".txt").toFile(), "Hello, world! ".repeat(1000 * i), StandardCharsets.UTF_8);
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        // When
+        try (Stream<Path> stream = Files.list(inputDir)) {
+            Iterator<Path> pathIterator = stream.sorted().collect(Collectors.toList()).iterator();
+            PathIteratorZipper.builder()
+                .rootDir(inputDir)
+                .sourceIterator(pathIterator)
+                .targetZipFile(testDir.resolve("parallel.zip"))
+                .maxNumberOfFiles(4)
+                .renameMap(Map.of("file1.txt", "renamed/file1.txt"))
+                .executorService(executorService)
+                .build()
+                .zip();
+        }
+        finally {
+            executorService.shutdown();
+        }
+
+        // Then
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("parallel.zip").toFile())) {
+            assertThat(zipFile.stream().map(ZipEntry::getName)).containsExactlyInAnyOrder("renamed/file1.txt", "file2.txt", "file3.txt", "file4.txt");
+            assertThat(new String(zipFile.getInputStream(zipFile.getEntry("file3.txt")).readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("Hello, world! ".repeat(3000));
+        }
+    }
+
+    @Test
+    public void zip_should_not_shut_down_executor_service() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("sharedexecutor");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file.txt").toFile(), "Hello, world!", StandardCharsets.UTF_8);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        // When
+        try {
+            for (int i = 1; i <= 2; i++) {
+                PathIteratorZipper.builder()
+                    .rootDir(inputDir)
+                    .sourceIterator(List.of(inputDir.resolve("file.txt")).iterator())
+                    .targetZipFile(testDir.resolve("shared" + i + ".zip"))
+                    .executorService(executorService)
+                    .build()
+                    .zip();
+            }
+
+            // Then
+            assertThat(executorService.isShutdown()).isFalse();
+            assertThat(testDir.resolve("shared2.zip")).exists();
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void zip_should_store_or_compress_each_file_according_to_compression_policy() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("compressionpolicy");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file.txt").toFile(), "Hello, world! ".repeat(1000), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(inputDir.resolve("image.jpg").toFile(), "Not really a JPEG", StandardCharsets.UTF_8);
+
+        // When
+        for (ExecutorService executorService : Arrays.asList(null, Executors.newSingleThreadExecutor())) {
+            Path zip = testDir.resolve(executorService == null ? "sequential.zip" : "parallel.zip");
+            PathIteratorZipper.builder()
+                .rootDir(inputDir)
+                .sourceIterator(List.of(inputDir.resolve("file.txt"), inputDir.resolve("image.jpg")).iterator())
+                .targetZipFile(zip)
+                .compressionPolicy(CompressionPolicy.adaptive())
+                .executorService(executorService)
+                .build()
+                .zip();
+            if (executorService != null) {
+                executorService.shutdown();
+            }
+
+            // Then
+            try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+                assertThat(zipFile.getEntry("file.txt").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+                assertThat(zipFile.getEntry("image.jpg").getMethod()).isEqualTo(ZipEntry.STORED);
+                assertThat(new String(zipFile.getInputStream(zipFile.getEntry("image.jpg")).readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("Not really a JPEG");
+            }
+        }
+    }
+
+    @Test
+    public void zip_should_push_back_file_that_does_not_fit_in_maxNumberOfBytes_onto_PushbackIterator() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("pushback");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file1.txt").toFile(), "a".repeat(60), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(inputDir.resolve("file2.txt").toFile(), "b".repeat(60), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(inputDir.resolve("file3.txt").toFile(), "c".repeat(150), StandardCharsets.UTF_8);
+        PushbackIterator<Path> pathIterator = new PushbackIterator<>(List.of(
+            inputDir.resolve("file1.txt"), inputDir.resolve("file2.txt"), inputDir.resolve("file3.txt")).iterator());
+
+        // When
+        for (int i = 1; i <= 3; i++) {
+            PathIteratorZipper.builder()
+                .rootDir(inputDir)
+                .sourceIterator(pathIterator)
+                .targetZipFile(testDir.resolve("pushback" + i + ".zip"))
+                .maxNumberOfBytes(100)
+                .build()
+                .zip();
+        }
+
+        // Then
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("pushback1.zip").toFile())) {
+            assertThat(zipFile.stream().map(ZipEntry::getName)).containsExactly("file1.txt");
+        }
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("pushback2.zip").toFile())) {
+            assertThat(zipFile.stream().map(ZipEntry::getName)).containsExactly("file2.txt");
+        }
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("pushback3.zip").toFile())) {
+            // a file larger than the limit is zipped on its own
+            assertThat(zipFile.stream().map(ZipEntry::getName)).containsExactly("file3.txt");
+        }
+        assertThat(pathIterator.hasNext()).isFalse();
+    }
+
+    @Test
+    public void binPack_should_distribute_files_over_minimal_number_of_groups_within_limits() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("binpack");
+        Files.createDirectories(inputDir);
+        int[] sizes = { 70, 50, 30, 30, 20 };
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            Path file = inputDir.resolve("file" + i + ".txt");
+            FileUtils.writeStringToFile(file.toFile(), "x".repeat(sizes[i]), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+
+        // When
+        List<List<Path>> groups = PathIteratorZipper.binPack(files, 10, 100);
+
+        // Then
+        assertThat(groups).containsExactly(
+            List.of(files.get(0), files.get(2)),
+            List.of(files.get(1), files.get(3), files.get(4)));
+        assertThat(PathIteratorZipper.binPack(files, 2, 100)).hasSize(3);
+    }
+
+    @Test
+    public void zipTo_should_stream_stored_and_compressed_files_to_output_stream() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("streaming");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file.txt").toFile(), "Hello, world! ".repeat(1000), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(inputDir.resolve("image.jpg").toFile(), "Not really a JPEG", StandardCharsets.UTF_8);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // When
+        PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(List.of(inputDir.resolve("file.txt"), inputDir.resolve("image.jpg")).iterator())
+            .compressionPolicy(CompressionPolicy.skipExtensions(CompressionPolicy.COMPRESSED_FORMAT_EXTENSIONS))
+            .build()
+            .zipTo(outputStream);
+
+        // Then
+        Path zip = Files.write(testDir.resolve("streamed.zip"), outputStream.toByteArray());
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertThat(zipFile.getEntry("file.txt").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(zipFile.getEntry("image.jpg").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(new String(zipFile.getInputStream(zipFile.getEntry("image.jpg")).readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("Not really a JPEG");
+        }
+    }
+
+    @Test
+    public void zip_should_deflate_files_by_default_and_store_them_if_compress_is_false() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("compressflag");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file.txt").toFile(), "Hello, world! ".repeat(1000), StandardCharsets.UTF_8);
+
+        // When
+        PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(List.of(inputDir.resolve("file.txt")).iterator())
+            .targetZipFile(testDir.resolve("default.zip"))
+            .build()
+            .zip();
+        PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(List.of(inputDir.resolve("file.txt")).iterator())
+            .targetZipFile(testDir.resolve("stored.zip"))
+            .compress(false)
+            .build()
+            .zip();
+
+        // Then
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("default.zip").toFile())) {
+            assertThat(zipFile.getEntry("file.txt").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+        }
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("stored.zip").toFile())) {
+            assertThat(zipFile.getEntry("file.txt").getMethod()).isEqualTo(ZipEntry.STORED);
+        }
+    }
+
+    @Test
+    public void zip_should_apply_compression_level_sequentially_and_in_parallel() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("compressionlevel");
+        Files.createDirectories(inputDir);
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            text.append("word").append(random.nextInt(500)).append(' ');
+        }
+        FileUtils.writeStringToFile(inputDir.resolve("file.txt").toFile(), text.toString(), StandardCharsets.UTF_8);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        // When
+        try {
+            for (ExecutorService executor : Arrays.asList(null, executorService)) {
+                for (int level : new int[] { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION }) {
+                    PathIteratorZipper.builder()
+                        .rootDir(inputDir)
+                        .sourceIterator(List.of(inputDir.resolve("file.txt")).iterator())
+                        .targetZipFile(testDir.resolve((executor == null ? "sequential" : "parallel") + level + ".zip"))
+                        .compressionLevel(level)
+                        .executorService(executor)
+                        .build()
+                        .zip();
+                }
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+
+        // Then
+        for (String mode : List.of("sequential", "parallel")) {
+            long none = Files.size(testDir.resolve(mode + Deflater.NO_COMPRESSION + ".zip"));
+            long fast = Files.size(testDir.resolve(mode + Deflater.BEST_SPEED + ".zip"));
+            long best = Files.size(testDir.resolve(mode + Deflater.BEST_COMPRESSION + ".zip"));
+            assertThat(none).isGreaterThan(fast);
+            assertThat(fast).isGreaterThan(best);
+        }
+    }
+
+    @Test
+    public void zip_should_reject_non_default_deflater_strategy_in_parallel_mode() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("strategy");
+        Files.createDirectories(inputDir);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        // When
+        PathIteratorZipper zipper = PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(Collections.emptyIterator())
+            .targetZipFile(testDir.resolve("strategy.zip"))
+            .deflaterStrategy(Deflater.HUFFMAN_ONLY)
+            .executorService(executorService)
+            .build();
+
+        // Then
+        try {
+            assertThatThrownBy(zipper::zip).isInstanceOf(IllegalStateException.class);
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void zip_should_produce_identical_zip_files_in_reproducible_mode() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("reproducible");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file1.txt").toFile(), "Hello, world!", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(inputDir.resolve("file2.txt").toFile(), "Hola, mundo!", StandardCharsets.UTF_8);
+        List<Path> files = List.of(inputDir.resolve("file1.txt"), inputDir.resolve("file2.txt"));
+
+        // When
+        PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(files.iterator())
+            .targetZipFile(testDir.resolve("first.zip"))
+            .reproducible(true)
+            .build()
+            .zip();
+        Files.setLastModifiedTime(files.get(0), FileTime.from(Instant.parse("2001-02-03T04:05:06Z")));
+        PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(files.iterator())
+            .targetZipFile(testDir.resolve("second.zip"))
+            .reproducible(true)
+            .build()
+            .zip();
+
+        // Then
+        assertThat(testDir.resolve("second.zip")).hasSameBinaryContentAs(testDir.resolve("first.zip"));
+    }
+
     @Test
     public void zip_should_throw_IllegalArgumentException_if_non_existent_file_included_by_iterator() throws Exception {
         // Given
@@ -210,6 +531,43 @@ public class PathIteratorZipperTest extends AbstractTestWithTestDir {
             .hasMessage("File to zip does not exist: non-existent-file");
     }
 
+    @Test
+    public void zip_should_remove_temporary_files_of_parallel_mode_if_non_existent_file_included_by_iterator() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("parallelfailure");
+        Files.createDirectories(inputDir);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Path file = inputDir.resolve("file" + i + ".txt");
+            FileUtils.writeStringToFile(file.toFile(), ("File " + i + " ").repeat(10000), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        files.add(inputDir.resolve("non-existent-file"));
+        Path tempDir = Path.of(System.getProperty("java.io.tmpdir"));
+        List<Path> tempFilesBefore = listScatterTempFiles(tempDir);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        // When
+        try {
+            PathIteratorZipper zipper = PathIteratorZipper.builder()
+                .rootDir(inputDir)
+                .sourceIterator(files.iterator())
+                .targetZipFile(testDir.resolve("parallelfailure.zip"))
+                .executorService(executorService)
+                .build();
+            assertThatThrownBy(zipper::zip)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageStartingWith("File to zip does not exist: ");
+        }
+        finally {
+            executorService.shutdown();
+        }
+
+        // Then
+        assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(listScatterTempFiles(tempDir)).isSubsetOf(tempFilesBefore);
+    }
+
     @Test
     public void zip_should_throw_IllegalArgumentException_if_non_existent_file_included_by_iterator_after_several_valid_files() throws Exception {
         // Given
@@ -243,4 +601,110 @@ public class PathIteratorZipperTest extends AbstractTestWithTestDir {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void zipWithResult_should_compute_file_and_archive_digests_while_zipping() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("digests");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file.txt").toFile(), "Hello, world! ".repeat(1000), StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(inputDir.resolve("image.jpg").toFile(), "Not really a JPEG", StandardCharsets.UTF_8);
+        List<Path> files = List.of(inputDir.resolve("file.txt"), inputDir.resolve("image.jpg"));
+
+        // When
+        ZipResult result = PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(files.iterator())
+            .targetZipFile(testDir.resolve("digests.zip"))
+            .compressionPolicy(CompressionPolicy.skipExtensions(CompressionPolicy.COMPRESSED_FORMAT_EXTENSIONS))
+            .fileDigestAlgorithms(List.of("SHA-1", "MD5"))
+            .archiveDigestAlgorithms(List.of("SHA-256"))
+            .build()
+            .zipWithResult();
+
+        // Then
+        assertThat(result.getTargetZipFile()).isEqualTo(testDir.resolve("digests.zip"));
+        assertThat(result.getNumberOfFiles()).isEqualTo(2);
+        assertThat(result.getNumberOfBytes()).isEqualTo(14000 + 17);
+        for (Path file : files) {
+            assertThat(result.getFileDigests().get(file)).containsExactly(
+                Map.entry("SHA-1", digest("SHA-1", file)),
+                Map.entry("MD5", digest("MD5", file)));
+        }
+        assertThat(result.getArchiveDigests()).containsExactly(Map.entry("SHA-256", digest("SHA-256", testDir.resolve("digests.zip"))));
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("digests.zip").toFile())) {
+            assertThat(zipFile.getEntry("image.jpg").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(new String(zipFile.getInputStream(zipFile.getEntry("file.txt")).readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("Hello, world! ".repeat(1000));
+        }
+    }
+
+    @Test
+    public void zipTo_should_compute_file_digests_in_parallel_mode_and_archive_digest_of_stream() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("paralleldigests");
+        Files.createDirectories(inputDir);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path file = inputDir.resolve("file" + i + ".txt");
+            FileUtils.writeStringToFile(file.toFile(), ("File " + i + " ").repeat(1000 * i), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        // When
+        ZipResult result;
+        try {
+            result = PathIteratorZipper.builder()
+                .rootDir(inputDir)
+                .sourceIterator(files.iterator())
+                .executorService(executorService)
+                .fileDigestAlgorithms(List.of("SHA-1"))
+                .archiveDigestAlgorithms(List.of("MD5"))
+                .build()
+                .zipTo(outputStream);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        // Then
+        assertThat(result.getTargetZipFile()).isNull();
+        assertThat(result.getFileDigests()).hasSize(20);
+        for (Path file : files) {
+            assertThat(result.getFileDigests().get(file)).containsExactly(Map.entry("SHA-1", digest("SHA-1", file)));
+        }
+        Path zip = Files.write(testDir.resolve("paralleldigests.zip"), outputStream.toByteArray());
+        assertThat(result.getArchiveDigests()).containsExactly(Map.entry("MD5", digest("MD5", zip)));
+    }
+
+    @Test
+    public void zip_should_reject_unknown_digest_algorithm_before_touching_target() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("unknowndigest");
+        Files.createDirectories(inputDir);
+        FileUtils.writeStringToFile(inputDir.resolve("file.txt").toFile(), "Hello, world!", StandardCharsets.UTF_8);
+        Files.writeString(testDir.resolve("unknowndigest.zip"), "previous zip");
+        PathIteratorZipper zipper = PathIteratorZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(List.of(inputDir.resolve("file.txt")).iterator())
+            .targetZipFile(testDir.resolve("unknowndigest.zip"))
+            .fileDigestAlgorithms(List.of("NO-SUCH-DIGEST"))
+            .build();
+
+        // Then
+        assertThatThrownBy(zipper::zip)
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("Unknown digest algorithm: NO-SUCH-DIGEST");
+        assertThat(testDir.resolve("unknowndigest.zip")).hasContent("previous zip");
+    }
+
+    private static String digest(String algorithm, Path file) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance(algorithm).digest(Files.readAllBytes(file)));
+    }
+
+    private static List<Path> listScatterTempFiles(Path tempDir) throws Exception {
+        try (Stream<Path> stream = Files.list(tempDir)) {
+            return stream.filter(path -> path.getFileName().toString().startsWith("parallelscatter")).collect(Collectors.toList());
+        }
+    }
+}
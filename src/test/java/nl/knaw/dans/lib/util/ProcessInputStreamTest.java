@@ -86,6 +86,34 @@ public class ProcessInputStreamTest {
             .hasMessageContaining("Process execution failed");
     }
 
+    @EnabledIf("nl.knaw.dans.lib.util.ProcessInputStreamTest#commandsAvailableWithHead")
+    @Test
+    void streams_large_output_completely() throws Exception {
+        // Much larger than any pipe buffer, so the process blocks until the reader catches up
+        var cmd = sh("-c", "head -c 50000000 /dev/zero");
+        long total = 0;
+        try (InputStream in = ProcessInputStream.start(cmd)) {
+            var buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+        }
+        assertThat(total).isEqualTo(50000000L);
+    }
+
+    @Test
+    void failure_to_start_throws_instead_of_blocking() {
+        var cmd = new CommandLine("no-such-command-" + System.nanoTime());
+
+        assertThatThrownBy(() -> {
+            try (InputStream in = ProcessInputStream.start(cmd)) {
+                in.read();
+            }
+        }).isInstanceOf(IOException.class)
+            .hasMessageContaining("Process execution failed");
+    }
+
     // --- Helpers ---
 
     private static CommandLine sh(String... args) {
@@ -105,6 +133,10 @@ public class ProcessInputStreamTest {
         return commandsAvailable() && commandOnPath("sleep");
     }
 
+    public static boolean commandsAvailableWithHead() {
+        return commandsAvailable() && commandOnPath("head");
+    }
+
     private static boolean commandOnPath(String cmd) {
         try {
             // Use sh -c 'command -v <cmd>' to detect presence
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static java.util.stream.Collectors.toSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SplittingZipperTest extends AbstractTestWithTestDir {
+
+    private List<Path> createFiles(Path inputDir, int numberOfFiles, int size) throws Exception {
+        Files.createDirectories(inputDir);
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i <= numberOfFiles; i++) {
+            Path file = inputDir.resolve("file" + i + ".txt");
+            FileUtils.writeStringToFile(file.toFile(), "x".repeat(size), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private List<String> entryNames(Path zip) throws Exception {
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            return zipFile.stream().map(ZipEntry::getName).toList();
+        }
+    }
+
+    @Test
+    public void next_should_create_parts_within_limits_until_source_is_exhausted() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("input");
+        List<Path> files = createFiles(inputDir, 5, 40);
+        Path targetDir = Files.createDirectories(testDir.resolve("parts"));
+
+        // When
+        List<Path> parts = new ArrayList<>();
+        SplittingZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(files.iterator())
+            .targetDir(targetDir)
+            .maxNumberOfBytes(100L)
+            .build()
+            .forEachRemaining(parts::add);
+
+        // Then
+        assertThat(parts).containsExactly(targetDir.resolve("part-00001.zip"), targetDir.resolve("part-00002.zip"), targetDir.resolve("part-00003.zip"));
+        assertThat(entryNames(parts.get(0))).containsExactly("file1.txt", "file2.txt");
+        assertThat(entryNames(parts.get(1))).containsExactly("file3.txt", "file4.txt");
+        assertThat(entryNames(parts.get(2))).containsExactly("file5.txt");
+    }
+
+    @Test
+    public void next_should_create_next_part_in_background_when_prefetching() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("input");
+        List<Path> files = createFiles(inputDir, 3, 10);
+        Path targetDir = Files.createDirectories(testDir.resolve("parts"));
+        ExecutorService prefetchExecutorService = Executors.newSingleThreadExecutor();
+
+        // When
+        try (SplittingZipper zipper = SplittingZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(files.iterator())
+            .targetDir(targetDir)
+            .baseName("deposit")
+            .maxNumberOfFiles(2)
+            .prefetchExecutorService(prefetchExecutorService)
+            .build()) {
+            Path first = zipper.next();
+
+            // Then
+            assertThat(entryNames(first)).containsExactly("file1.txt", "file2.txt");
+            assertThat(zipper.hasNext()).isTrue();
+            Path second = zipper.next();
+            assertThat(second).isEqualTo(targetDir.resolve("deposit-00002.zip"));
+            assertThat(entryNames(second)).containsExactly("file3.txt");
+            assertThat(zipper.hasNext()).isFalse();
+        }
+        finally {
+            prefetchExecutorService.shutdown();
+        }
+    }
+
+    @Test
+    public void hasNext_should_return_false_if_only_directories_are_left() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("input");
+        List<Path> files = createFiles(inputDir, 2, 10);
+        Path subDir = Files.createDirectories(inputDir.resolve("subdir"));
+        Path targetDir = Files.createDirectories(testDir.resolve("parts"));
+
+        // When
+        List<Path> parts = new ArrayList<>();
+        SplittingZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(List.of(files.get(0), files.get(1), subDir).iterator())
+            .targetDir(targetDir)
+            .maxNumberOfFiles(2)
+            .build()
+            .forEachRemaining(parts::add);
+
+        // Then
+        assertThat(parts).containsExactly(targetDir.resolve("part-00001.zip"));
+        assertThat(targetDir.resolve("part-00002.zip")).doesNotExist();
+    }
+
+    @Test
+    public void nextResult_should_return_digests_of_each_part() throws Exception {
+        // Given
+        Path inputDir = testDir.resolve("input");
+        List<Path> files = createFiles(inputDir, 3, 10);
+        Path targetDir = Files.createDirectories(testDir.resolve("parts"));
+
+        // When
+        List<ZipResult> results = new ArrayList<>();
+        SplittingZipper zipper = SplittingZipper.builder()
+            .rootDir(inputDir)
+            .sourceIterator(files.iterator())
+            .targetDir(targetDir)
+            .maxNumberOfFiles(2)
+            .reproducible(true)
+            .fileDigestAlgorithms(List.of("SHA-1"))
+            .archiveDigestAlgorithms(List.of("MD5"))
+            .build();
+        while (zipper.hasNext()) {
+            results.add(zipper.nextResult());
+        }
+
+        // Then
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getFileDigests()).containsOnlyKeys(files.get(0), files.get(1));
+        assertThat(results.get(0).getFileDigests().get(files.get(0))).containsEntry("SHA-1", "ff9ee043d85595eb255c05dfe32ece02a53efbb2"); // "xxxxxxxxxx"
+        assertThat(results.get(1).getFileDigests()).containsOnlyKeys(files.get(2));
+        for (ZipResult result : results) {
+            assertThat(result.getArchiveDigests()).containsOnlyKeys("MD5");
+            try (ZipFile zipFile = new ZipFile(result.getTargetZipFile().toFile())) {
+                assertThat(zipFile.stream().map(ZipEntry::getTimeLocal)).containsOnly(LocalDateTime.of(1980, 1, 1, 0, 0));
+            }
+        }
+    }
+
+    @Test
+    public void builder_should_take_all_options_of_PathIteratorZipper() {
+        Set<String> splittingZipperOptions = Arrays.stream(SplittingZipper.SplittingZipperBuilder.class.getMethods()).map(m -> m.getName()).collect(toSet());
+
+        assertThat(Arrays.stream(PathIteratorZipper.PathIteratorZipperBuilder.class.getDeclaredMethods()).map(m -> m.getName())
+            .filter(name -> !name.equals("targetZipFile") && !name.equals("build") && !name.equals("toString") && !name.startsWith("$")))
+            .allMatch(splittingZipperOptions::contains);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ZipExtractorTest extends AbstractTestWithTestDir {
+    private final Path inputDir = Paths.get("src/test/resources/zip-input/audiences");
+
+    @Test
+    public void extract_should_extract_all_files_and_directories() throws Exception {
+        Files.createDirectories(testDir);
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("audiences.zip"), false);
+
+        ZipExtractor.builder()
+            .zipFile(testDir.resolve("audiences.zip"))
+            .outputDirectory(testDir.resolve("output"))
+            .build()
+            .extract();
+
+        assertThat(testDir.resolve("output/data/a/deeper/path/With some file.txt")).hasSameBinaryContentAs(inputDir.resolve("data/a/deeper/path/With some file.txt"));
+        assertThat(testDir.resolve("output/data/random images/image01.png")).hasSameBinaryContentAs(inputDir.resolve("data/random images/image01.png"));
+        assertThat(testDir.resolve("output/bag-info.txt")).hasSameBinaryContentAs(inputDir.resolve("bag-info.txt"));
+    }
+
+    @Test
+    public void extract_should_extract_entries_in_parallel_on_executor_service_and_create_missing_parent_directories() throws Exception {
+        Files.createDirectories(testDir);
+        // a ZIP file without directory entries, like the ones created by Dataverse
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("nodirs.zip"))) {
+            for (int i = 0; i < 20; i++) {
+                zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("dir" + (i % 3) + "/sub/file" + i + ".txt"));
+                zipArchiveOutputStream.write(("content " + i).repeat(1000).getBytes(StandardCharsets.UTF_8));
+                zipArchiveOutputStream.closeArchiveEntry();
+            }
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        try {
+            ZipUtil.extractZipFile(testDir.resolve("nodirs.zip"), testDir.resolve("output"), executorService);
+        }
+        finally {
+            executorService.shutdown();
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(testDir.resolve("output/dir" + (i % 3) + "/sub/file" + i + ".txt")).hasContent(("content " + i).repeat(1000));
+        }
+    }
+
+    @Test
+    public void extract_should_copy_stored_entries_verbatim() throws Exception {
+        Files.createDirectories(testDir);
+        byte[] large = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(large);
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("stored.zip"))) {
+            ZipArchiveEntry storedEntry = new ZipArchiveEntry("stored/large.bin");
+            storedEntry.setMethod(ZipArchiveEntry.STORED);
+            zipArchiveOutputStream.putArchiveEntry(storedEntry);
+            zipArchiveOutputStream.write(large);
+            zipArchiveOutputStream.closeArchiveEntry();
+            ZipArchiveEntry emptyEntry = new ZipArchiveEntry("stored/empty.txt");
+            emptyEntry.setMethod(ZipArchiveEntry.STORED);
+            zipArchiveOutputStream.putArchiveEntry(emptyEntry);
+            zipArchiveOutputStream.closeArchiveEntry();
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("deflated.txt"));
+            zipArchiveOutputStream.write("Hello, world!".getBytes(StandardCharsets.UTF_8));
+            zipArchiveOutputStream.closeArchiveEntry();
+        }
+
+        ZipUtil.extractZipFile(testDir.resolve("stored.zip"), testDir.resolve("output"));
+
+        assertThat(testDir.resolve("output/stored/large.bin")).hasBinaryContent(large);
+        assertThat(testDir.resolve("output/stored/empty.txt")).isEmptyFile();
+        assertThat(testDir.resolve("output/deflated.txt")).hasContent("Hello, world!");
+    }
+
+    @Test
+    public void extract_should_not_copy_data_of_next_entries_if_size_of_stored_entry_is_forged() throws Exception {
+        Files.createDirectories(testDir);
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("forged.zip"))) {
+            for (String name : List.of("first.txt", "second.txt")) {
+                ZipArchiveEntry entry = new ZipArchiveEntry(name);
+                entry.setMethod(ZipArchiveEntry.STORED);
+                zipArchiveOutputStream.putArchiveEntry(entry);
+                zipArchiveOutputStream.write(("content of " + name).getBytes(StandardCharsets.UTF_8));
+                zipArchiveOutputStream.closeArchiveEntry();
+            }
+        }
+        forgeDeclaredSizeOfFirstEntry(testDir.resolve("forged.zip"), "content of first.txt".length() + 100);
+
+        ZipUtil.extractZipFile(testDir.resolve("forged.zip"), testDir.resolve("output"));
+
+        assertThat(testDir.resolve("output/first.txt")).hasContent("content of first.txt");
+        assertThat(testDir.resolve("output/second.txt")).hasContent("content of second.txt");
+    }
+
+    @Test
+    public void extract_should_extract_only_entries_accepted_by_filter() throws Exception {
+        Files.createDirectories(testDir);
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("audiences.zip"), true);
+
+        ZipUtil.extractZipFile(testDir.resolve("audiences.zip"), testDir.resolve("output"), ZipUtil.globFilter("*/bag-info.txt", "*/metadata/*.xml"));
+
+        try (Stream<Path> files = Files.walk(testDir.resolve("output"))) {
+            assertThat(files.filter(Files::isRegularFile).map(testDir.resolve("output")::relativize).map(Path::toString)).containsExactlyInAnyOrder(
+                "audiences/bag-info.txt",
+                "audiences/metadata/dataset.xml",
+                "audiences/metadata/files.xml");
+        }
+        assertThat(testDir.resolve("output/audiences/data")).doesNotExist();
+    }
+
+    @Test
+    public void extract_should_abort_when_compression_ratio_of_entry_exceeds_limit() throws Exception {
+        Files.createDirectories(testDir);
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("bomb.zip"))) {
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("zeros.bin"));
+            zipArchiveOutputStream.write(new byte[5 * 1024 * 1024]);
+            zipArchiveOutputStream.closeArchiveEntry();
+        }
+
+        assertThatThrownBy(() -> ZipExtractor.builder()
+            .zipFile(testDir.resolve("bomb.zip"))
+            .outputDirectory(testDir.resolve("output"))
+            .limits(ZipLimits.builder().maxCompressionRatio(100).build())
+            .build()
+            .extract())
+            .isInstanceOf(ZipLimitExceededException.class)
+            .hasMessage("Compression ratio of entry 'zeros.bin' exceeds 100.0");
+        assertThat(testDir.resolve("output/zeros.bin")).doesNotExist();
+    }
+
+    @Test
+    public void extract_should_reject_declared_compression_ratio_before_extracting_anything() throws Exception {
+        Files.createDirectories(testDir);
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("bomb.zip"))) {
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("first.txt"));
+            zipArchiveOutputStream.write("content of first.txt".getBytes(StandardCharsets.UTF_8));
+            zipArchiveOutputStream.closeArchiveEntry();
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("zeros.bin"));
+            zipArchiveOutputStream.write(new byte[5 * 1024 * 1024]);
+            zipArchiveOutputStream.closeArchiveEntry();
+        }
+
+        assertThatThrownBy(() -> ZipExtractor.builder()
+            .zipFile(testDir.resolve("bomb.zip"))
+            .outputDirectory(testDir.resolve("output"))
+            .limits(ZipLimits.builder().maxCompressionRatio(100).build())
+            .build()
+            .extract())
+            .isInstanceOf(ZipLimitExceededException.class)
+            .hasMessage("Compression ratio of entry 'zeros.bin' exceeds 100.0");
+        assertThat(testDir.resolve("output/first.txt")).doesNotExist();
+    }
+
+    @Test
+    public void extract_should_leave_only_complete_files_when_parallel_extraction_fails() throws Exception {
+        Files.createDirectories(testDir);
+        byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("mixed.zip"))) {
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("zeros.bin"));
+            zipArchiveOutputStream.write(new byte[5 * 1024 * 1024]);
+            zipArchiveOutputStream.closeArchiveEntry();
+            for (int i = 0; i < 20; i++) {
+                ZipArchiveEntry entry = new ZipArchiveEntry("file" + i + ".bin");
+                entry.setMethod(i % 2 == 0 ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED);
+                zipArchiveOutputStream.putArchiveEntry(entry);
+                zipArchiveOutputStream.write(data);
+                zipArchiveOutputStream.closeArchiveEntry();
+            }
+        }
+        // understate the size of zeros.bin, so that it passes the checks on the central directory and is only caught while it is extracted
+        forgeDeclaredSizeOfFirstEntry(testDir.resolve("mixed.zip"), 1000);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        try {
+            assertThatThrownBy(() -> ZipExtractor.builder()
+                .zipFile(testDir.resolve("mixed.zip"))
+                .outputDirectory(testDir.resolve("output"))
+                .executorService(executorService)
+                .limits(ZipLimits.builder().maxCompressionRatio(100).build())
+                .build()
+                .extract())
+                .isInstanceOf(ZipLimitExceededException.class)
+                .hasMessage("Entry 'zeros.bin' is larger than its declared size of 1000 bytes");
+
+            // nothing is written to the output directory after extract() has returned, so what is there now is final
+            assertThat(testDir.resolve("output/zeros.bin")).doesNotExist();
+            for (int i = 0; i < 20; i++) {
+                Path file = testDir.resolve("output/file" + i + ".bin");
+                if (Files.exists(file)) {
+                    assertThat(file).hasBinaryContent(data);
+                }
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void extract_should_abort_before_extracting_when_central_directory_exceeds_limits() throws Exception {
+        Files.createDirectories(testDir);
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("audiences.zip"), false);
+
+        for (ZipLimits limits : List.of(
+            ZipLimits.builder().maxNumberOfEntries(10).build(),
+            ZipLimits.builder().maxDepth(4).build(),
+            ZipLimits.builder().maxTotalSize(1000).build())) {
+            assertThatThrownBy(() -> ZipExtractor.builder()
+                .zipFile(testDir.resolve("audiences.zip"))
+                .outputDirectory(testDir.resolve("output"))
+                .limits(limits)
+                .build()
+                .extract())
+                .isInstanceOf(ZipLimitExceededException.class);
+            assertThat(testDir.resolve("output")).doesNotExist();
+        }
+    }
+
+    @Test
+    public void extract_should_reject_entry_outside_output_directory() throws Exception {
+        Files.createDirectories(testDir);
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("evil.zip"))) {
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("../evil.txt"));
+            zipArchiveOutputStream.write("evil".getBytes(StandardCharsets.UTF_8));
+            zipArchiveOutputStream.closeArchiveEntry();
+        }
+
+        assertThatThrownBy(() -> ZipUtil.extractZipFile(testDir.resolve("evil.zip"), testDir.resolve("output")))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("Bad zip entry path: '../evil.txt'");
+        assertThat(testDir.resolve("evil.txt")).doesNotExist();
+    }
+
+    @Test
+    public void extract_should_check_usable_space_and_sync_files_without_changing_their_contents() throws Exception {
+        Files.createDirectories(testDir);
+        byte[] large = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(large);
+        try (ZipArchiveOutputStream zipArchiveOutputStream = new ZipArchiveOutputStream(testDir.resolve("mixed.zip"))) {
+            ZipArchiveEntry storedEntry = new ZipArchiveEntry("stored/large.bin");
+            storedEntry.setMethod(ZipArchiveEntry.STORED);
+            zipArchiveOutputStream.putArchiveEntry(storedEntry);
+            zipArchiveOutputStream.write(large);
+            zipArchiveOutputStream.closeArchiveEntry();
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("deflated/large.bin"));
+            zipArchiveOutputStream.write(large);
+            zipArchiveOutputStream.closeArchiveEntry();
+            zipArchiveOutputStream.putArchiveEntry(new ZipArchiveEntry("deflated/empty.txt"));
+            zipArchiveOutputStream.closeArchiveEntry();
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+        try {
+            for (ZipExtractor.SyncMode syncMode : ZipExtractor.SyncMode.values()) {
+                ZipExtractor.builder()
+                    .zipFile(testDir.resolve("mixed.zip"))
+                    .outputDirectory(testDir.resolve("output-" + syncMode))
+                    .executorService(syncMode == ZipExtractor.SyncMode.PER_FILE ? executorService : null)
+                    .checkUsableSpace(true)
+                    .syncMode(syncMode)
+                    .bufferSize(1000)
+                    .build()
+                    .extract();
+
+                assertThat(testDir.resolve("output-" + syncMode + "/stored/large.bin")).hasBinaryContent(large);
+                assertThat(testDir.resolve("output-" + syncMode + "/deflated/large.bin")).hasBinaryContent(large);
+                assertThat(testDir.resolve("output-" + syncMode + "/deflated/empty.txt")).isEmptyFile();
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void extract_should_reject_non_positive_buffer_size() throws Exception {
+        Files.createDirectories(testDir);
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("audiences.zip"), false);
+
+        assertThatThrownBy(() -> ZipExtractor.builder()
+            .zipFile(testDir.resolve("audiences.zip"))
+            .outputDirectory(testDir.resolve("output"))
+            .bufferSize(0)
+            .build()
+            .extract())
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("Buffer size must be positive: 0");
+    }
+
+    /**
+     * Overwrites the uncompressed size of the first entry in the central directory of a ZIP file, leaving its compressed size and its data as they are.
+     */
+    private static void forgeDeclaredSizeOfFirstEntry(Path zipFile, int size) throws Exception {
+        byte[] zip = Files.readAllBytes(zipFile);
+        ByteBuffer buffer = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int centralDirectoryHeader = 0;
+        while (buffer.getInt(centralDirectoryHeader) != 0x02014b50) {
+            centralDirectoryHeader++;
+        }
+        buffer.putInt(centralDirectoryHeader + 24, size);
+        Files.write(zipFile, zip);
+    }
+}
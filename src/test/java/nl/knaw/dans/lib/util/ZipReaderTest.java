@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.zip.ZipEntry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ZipReaderTest extends AbstractTestWithTestDir {
+    private final Path inputDir = Paths.get("src/test/resources/zip-input/audiences");
+
+    @Test
+    public void entries_should_list_entries_with_sizes_and_methods_without_extracting() throws Exception {
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("test.zip"), false);
+
+        try (ZipReader zipReader = ZipUtil.openZipFile(testDir.resolve("test.zip"))) {
+            assertThat(zipReader.entries()).hasSize(17);
+            assertThat(zipReader.entries().filter(entry -> !entry.isDirectory()).count()).isEqualTo(11);
+
+            ZipReader.EntryInfo bagInfo = zipReader.getEntry("bag-info.txt").orElseThrow();
+            assertThat(bagInfo.getSize()).isEqualTo(Files.size(inputDir.resolve("bag-info.txt")));
+            assertThat(bagInfo.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(bagInfo.getCrc()).isNotEqualTo(-1);
+            assertThat(bagInfo.isDirectory()).isFalse();
+            assertThat(zipReader.getEntry("missing.txt")).isEmpty();
+        }
+    }
+
+    @Test
+    public void newChannel_should_read_uncompressed_data_of_entry() throws Exception {
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("test.zip"), false);
+
+        try (ZipReader zipReader = new ZipReader(testDir.resolve("test.zip")); ReadableByteChannel channel = zipReader.newChannel("bagit.txt")) {
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            while (channel.read(buffer) != -1) {
+                // read until end of entry
+            }
+            buffer.flip();
+            byte[] content = new byte[buffer.remaining()];
+            buffer.get(content);
+            assertThat(content).isEqualTo(Files.readAllBytes(inputDir.resolve("bagit.txt")));
+        }
+    }
+
+    @Test
+    public void computeChecksums_should_stream_entries_through_digest() throws Exception {
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("test.zip"), false);
+
+        try (ZipReader zipReader = new ZipReader(testDir.resolve("test.zip"))) {
+            var checksums = zipReader.computeChecksums("SHA-1", ZipUtil.globFilter("data/**"));
+
+            assertThat(checksums).hasSize(4);
+            assertThat(checksums.get("data/random images/image01.png"))
+                .isEqualTo(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(Files.readAllBytes(inputDir.resolve("data/random images/image01.png")))));
+            assertThatThrownBy(() -> zipReader.computeChecksum("missing.txt", "SHA-1")).isInstanceOf(NoSuchFileException.class);
+        }
+    }
+}
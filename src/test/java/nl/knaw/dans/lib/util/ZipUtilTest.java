@@ -15,15 +15,25 @@
  */
 package nl.knaw.dans.lib.util;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class ZipUtilTest extends AbstractTestWithTestDir {
 
@@ -100,4 +110,142 @@ public class ZipUtilTest extends AbstractTestWithTestDir {
         );
     }
 
+    @Test
+    public void zipDirectory_should_write_zip_to_output_stream_without_closing_it() throws Exception {
+        var outputStream = new ByteArrayOutputStream() {
+            boolean closed = false;
+
+            @Override
+            public void close() {
+                closed = true;
+            }
+        };
+
+        ZipUtil.zipDirectory(Paths.get("src/test/resources/zip-input/audiences"), outputStream, true);
+
+        assertThat(outputStream.closed).isFalse();
+        Files.createDirectories(testDir);
+        Files.write(testDir.resolve("streamed.zip"), outputStream.toByteArray());
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("streamed.zip").toFile())) {
+            assertThat(zipFile.size()).isEqualTo(18);
+            assertThat(zipFile.getEntry("audiences/bagit.txt")).isNotNull();
+        }
+    }
+
+    @Test
+    public void zipDirectory_should_apply_compression_level() throws Exception {
+        ZipUtil.zipDirectory(Paths.get("src/test/resources/zip-input/audiences"), testDir.resolve("none.zip"), false, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        ZipUtil.zipDirectory(Paths.get("src/test/resources/zip-input/audiences"), testDir.resolve("best.zip"), false, Deflater.BEST_COMPRESSION, Deflater.FILTERED);
+
+        assertThat(Files.size(testDir.resolve("none.zip"))).isGreaterThan(Files.size(testDir.resolve("best.zip")));
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("best.zip").toFile())) {
+            assertThat(new String(zipFile.getInputStream(zipFile.getEntry("bagit.txt")).readAllBytes())).startsWith("BagIt-Version");
+        }
+    }
+
+    @Test
+    public void readEntry_should_read_single_entry_and_fail_for_missing_entry() throws Exception {
+        ZipUtil.zipDirectory(Paths.get("src/test/resources/zip-input/audiences"), testDir.resolve("test.zip"), true);
+
+        assertThat(ZipUtil.readEntry(testDir.resolve("test.zip"), "audiences/bagit.txt"))
+            .isEqualTo(Files.readAllBytes(Paths.get("src/test/resources/zip-input/audiences/bagit.txt")));
+        assertThatThrownBy(() -> ZipUtil.readEntry(testDir.resolve("test.zip"), "audiences/missing.txt"))
+            .isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    public void readEntries_should_read_entries_accepted_by_filter() throws Exception {
+        ZipUtil.zipDirectory(Paths.get("src/test/resources/zip-input/audiences"), testDir.resolve("test.zip"), false);
+
+        var contents = ZipUtil.readEntries(testDir.resolve("test.zip"), ZipUtil.globFilter("metadata/*.xml", "bag-info.txt"));
+
+        assertThat(contents).containsOnlyKeys("metadata/dataset.xml", "metadata/files.xml", "bag-info.txt");
+        assertThat(contents.get("bag-info.txt")).isEqualTo(Files.readAllBytes(Paths.get("src/test/resources/zip-input/audiences/bag-info.txt")));
+    }
+
+    @Test
+    public void zipDirectory_should_add_entries_depth_first_in_order_of_name() throws Exception {
+        ZipUtil.zipDirectory(Paths.get("src/test/resources/zip-input/audiences"), testDir.resolve("test.zip"), false);
+
+        ArrayList<String> actualEntries = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("test.zip").toFile())) {
+            zipFile.stream().map(ZipEntry::getName).forEach(actualEntries::add);
+        }
+        assertThat(actualEntries).containsExactly(
+            "README.md",
+            "bag-info.txt",
+            "bagit.txt",
+            "data/",
+            "data/a/",
+            "data/a/deeper/",
+            "data/a/deeper/path/",
+            "data/a/deeper/path/With some file.txt",
+            "data/random images/",
+            "data/random images/image01.png",
+            "data/random images/image02.jpeg",
+            "data/random images/image03.jpeg",
+            "manifest-sha1.txt",
+            "metadata/",
+            "metadata/dataset.xml",
+            "metadata/files.xml",
+            "tagmanifest-sha1.txt"
+        );
+    }
+
+    @Test
+    public void zipDirectory_should_zip_deeply_nested_directories() throws Exception {
+        Path deepest = testDir.resolve("deep");
+        for (int i = 0; i < 500; i++) {
+            deepest = deepest.resolve("d");
+        }
+        Files.createDirectories(deepest);
+        Files.writeString(deepest.resolve("file.txt"), "deep");
+
+        ZipUtil.zipDirectory(testDir.resolve("deep"), testDir.resolve("deep.zip"), false);
+
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("deep.zip").toFile())) {
+            assertThat(zipFile.size()).isEqualTo(501);
+            assertThat(zipFile.getEntry("d/".repeat(500) + "file.txt")).isNotNull();
+        }
+    }
+
+    @Test
+    public void zipDirectory_should_fail_on_symbolic_link_to_ancestor_directory() throws Exception {
+        Path inputDir = testDir.resolve("loop");
+        Files.createDirectories(inputDir.resolve("a/b"));
+        Files.writeString(inputDir.resolve("a/file.txt"), "looping");
+        Files.createSymbolicLink(inputDir.resolve("a/b/back-to-a"), inputDir.resolve("a").toAbsolutePath());
+
+        assertThatThrownBy(() -> ZipUtil.zipDirectory(inputDir, testDir.resolve("loop.zip"), false))
+            .isInstanceOf(FileSystemLoopException.class)
+            .hasMessageEndingWith("back-to-a");
+    }
+
+    @Test
+    public void zipDirectory_should_skip_symbolic_link_to_non_existing_file() throws Exception {
+        Path inputDir = testDir.resolve("dangling");
+        Files.createDirectories(inputDir);
+        Files.writeString(inputDir.resolve("file.txt"), "still here");
+        Files.createSymbolicLink(inputDir.resolve("gone.txt"), inputDir.resolve("deleted.txt").toAbsolutePath());
+
+        ZipUtil.zipDirectory(inputDir, testDir.resolve("dangling.zip"), false);
+
+        try (ZipFile zipFile = new ZipFile(testDir.resolve("dangling.zip").toFile())) {
+            assertThat(zipFile.stream().map(ZipEntry::getName)).containsExactly("file.txt");
+        }
+    }
+
+    @Test
+    public void zipDirectoryReproducibly_should_produce_identical_zip_files_regardless_of_modification_times() throws Exception {
+        Path inputDir = testDir.resolve("input");
+        FileUtils.copyDirectory(Paths.get("src/test/resources/zip-input/audiences").toFile(), inputDir.toFile());
+
+        ZipUtil.zipDirectoryReproducibly(inputDir, testDir.resolve("first.zip"), true);
+        Files.setLastModifiedTime(inputDir.resolve("bagit.txt"), FileTime.from(Instant.parse("2001-02-03T04:05:06Z")));
+        Files.setLastModifiedTime(inputDir.resolve("data"), FileTime.from(Instant.parse("2011-12-13T14:15:16Z")));
+        ZipUtil.zipDirectoryReproducibly(inputDir, testDir.resolve("second.zip"), true);
+
+        assertThat(testDir.resolve("second.zip")).hasSameBinaryContentAs(testDir.resolve("first.zip"));
+    }
+
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BagValidationContextTest {
+    private final Path bagDir = Path.of("src/test/resources/zip-input/audiences");
+
+    @Test
+    void get_should_load_value_only_once() throws Exception {
+        var context = new BagValidationContext(bagDir);
+        var calls = new AtomicInteger();
+
+        var first = context.get("custom", () -> "value-" + calls.incrementAndGet());
+        var second = context.get("custom", () -> "value-" + calls.incrementAndGet());
+
+        assertThat(first).isEqualTo("value-1");
+        assertThat(second).isEqualTo("value-1");
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void get_should_rethrow_exception_of_loader_on_every_request() {
+        var context = new BagValidationContext(bagDir);
+        var calls = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> context.get("failing", () -> {
+                calls.incrementAndGet();
+                throw new IOException("cannot read");
+            })).isInstanceOf(IOException.class).hasMessage("cannot read");
+        }
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void get_should_load_value_again_after_loader_was_interrupted() throws Exception {
+        var context = new BagValidationContext(bagDir);
+        var calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> context.get("interrupted", () -> {
+            calls.incrementAndGet();
+            throw new ClosedByInterruptException();
+        })).isInstanceOf(ClosedByInterruptException.class);
+        var value = context.get("interrupted", () -> "value-" + calls.incrementAndGet());
+
+        assertThat(value).isEqualTo("value-2");
+    }
+
+    @Test
+    void get_should_fail_fast_if_loader_requests_the_key_it_is_loading() {
+        var context = new BagValidationContext(bagDir);
+
+        assertThatThrownBy(() -> context.get("recursive", () -> context.get("recursive", () -> "value")))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("Recursive request for 'recursive' while loading it");
+    }
+
+    @Test
+    void getBagInfo_should_parse_bag_info() throws Exception {
+        var context = new BagValidationContext(bagDir);
+
+        assertThat(context.getBagInfo())
+            .containsEntry("Payload-Oxum", List.of("3212481.4"))
+            .containsEntry("Created", List.of("2016-11-12T23:41:11.000+00:00"))
+            .hasSize(4);
+    }
+
+    @Test
+    void getManifest_should_map_paths_to_checksums() throws Exception {
+        var context = new BagValidationContext(bagDir);
+
+        var manifest = context.getManifest("sha1");
+
+        assertThat(manifest)
+            .hasSize(4)
+            .containsEntry(Path.of("data/a/deeper/path/With some file.txt"), "f750a66151421a62521be6495684fb8384cb4aa0");
+        assertThat(context.getManifest("sha1")).isSameAs(manifest);
+    }
+
+    @Test
+    void getXmlDocument_should_return_same_document_for_equivalent_paths() throws Exception {
+        var context = new BagValidationContext(bagDir);
+
+        var document = context.getXmlDocument(Path.of("metadata/dataset.xml"));
+
+        assertThat(document.getDocumentElement().getLocalName()).isEqualTo("DDM");
+        assertThat(context.getXmlDocument(Path.of("metadata/../metadata/dataset.xml"))).isSameAs(document);
+    }
+
+    @Test
+    void getFiles_should_list_all_files_relative_to_bag() throws Exception {
+        var context = new BagValidationContext(bagDir);
+
+        assertThat(context.getFiles())
+            .hasSize(11)
+            .contains(Path.of("bagit.txt"), Path.of("data/random images/image01.png"));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BagValidationReportTest {
+
+    @Test
+    void render_should_align_statuses_and_mark_continuation_lines_of_error_messages() {
+        var report = new BagValidationReport(Path.of("bag"), List.of(
+            new RuleValidationResult("1.1", RuleValidationResult.RuleValidationResultStatus.SUCCESS),
+            new RuleValidationResult("1.10", RuleValidationResult.RuleValidationResultStatus.FAILURE, "first error\nsecond error"),
+            new RuleValidationResult("2", RuleValidationResult.RuleValidationResultStatus.SKIPPED)
+        ), Duration.ofMillis(10));
+
+        assertThat(report.render(false)).isEqualTo(
+            "! Rule 1.1:   SUCCESS\n"
+                + "! Rule 1.10:  FAILURE - first error\n"
+                + "!second error\n"
+                + "! Rule 2:     SKIPPED");
+    }
+
+    @Test
+    void render_should_include_timings_of_executed_rules_if_requested() {
+        var report = new BagValidationReport(Path.of("bag"), List.of(
+            new RuleValidationResult("1.1", RuleValidationResult.RuleValidationResultStatus.SUCCESS).withDuration(Duration.ofMillis(42)),
+            new RuleValidationResult("1.2", RuleValidationResult.RuleValidationResultStatus.CANCELLED)
+        ), Duration.ofMillis(50));
+
+        assertThat(report.render(true)).isEqualTo(
+            "! Rule 1.1:  SUCCESS (42 ms)\n"
+                + "! Rule 1.2:  CANCELLED");
+    }
+
+    @Test
+    void isValid_should_be_false_if_any_rule_failed_timed_out_or_was_cancelled() {
+        var success = new RuleValidationResult("1", RuleValidationResult.RuleValidationResultStatus.SUCCESS);
+        var skipped = new RuleValidationResult("2", RuleValidationResult.RuleValidationResultStatus.SKIPPED);
+        var timeout = new RuleValidationResult("3", RuleValidationResult.RuleValidationResultStatus.TIMEOUT, "too slow");
+
+        assertThat(new BagValidationReport(Path.of("bag"), List.of(success, skipped), null).isValid()).isTrue();
+        assertThat(new BagValidationReport(Path.of("bag"), List.of(success, timeout), null).isValid()).isFalse();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchBagValidatorTest {
+
+    private static class CollectingListener implements BagValidationListener {
+        private final Map<Path, List<RuleValidationResult>> validated = new ConcurrentHashMap<>();
+        private final Map<Path, Exception> errors = new ConcurrentHashMap<>();
+
+        @Override
+        public void onValidated(Path bag, List<RuleValidationResult> results) {
+            validated.put(bag, results);
+        }
+
+        @Override
+        public void onError(Path bag, Exception exception) {
+            errors.put(bag, exception);
+        }
+    }
+
+    @Test
+    void validateBags_should_validate_maxParallelBags_bags_at_the_same_time() throws Exception {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        // each group of 3 bags waits for each other, so this only succeeds if 3 bags are validated at the same time
+        var barrier = new CyclicBarrier(3);
+        BagValidatorRule rule = path -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                barrier.await(10, TimeUnit.SECONDS);
+            }
+            finally {
+                running.decrementAndGet();
+            }
+            return RuleResult.ok();
+        };
+        var validator = BatchBagValidator.builder()
+            .ruleEngine(new RuleEngineImpl())
+            .rules(List.of(new NumberedRule("1.1", rule)))
+            .maxParallelBags(3)
+            .build();
+        var listener = new CollectingListener();
+
+        validator.validateBags(IntStream.range(0, 12).mapToObj(i -> Path.of("bag" + i)), listener);
+
+        assertThat(listener.validated).hasSize(12);
+        assertThat(listener.errors).isEmpty();
+        assertThat(maxRunning.get()).isEqualTo(3);
+    }
+
+    @Test
+    void validateBags_should_not_start_another_bag_while_maxParallelBags_bags_are_being_validated() throws Exception {
+        var started = new AtomicInteger();
+        var threeStarted = new CountDownLatch(3);
+        var release = new CountDownLatch(1);
+        BagValidatorRule rule = path -> {
+            started.incrementAndGet();
+            threeStarted.countDown();
+            release.await();
+            return RuleResult.ok();
+        };
+        // the executor has more threads than maxParallelBags, so only the validator can limit the number of bags
+        var executorService = Executors.newFixedThreadPool(8);
+        var validator = BatchBagValidator.builder()
+            .ruleEngine(new RuleEngineImpl())
+            .rules(List.of(new NumberedRule("1.1", rule)))
+            .maxParallelBags(3)
+            .executorService(executorService)
+            .build();
+        var listener = new CollectingListener();
+        var bagsTaken = new AtomicInteger();
+        var source = IntStream.range(0, 4).mapToObj(i -> Path.of("bag" + i)).iterator();
+        var bags = new Iterator<Path>() {
+
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public Path next() {
+                bagsTaken.incrementAndGet();
+                return source.next();
+            }
+        };
+
+        try {
+            var validation = new FutureTask<Void>(() -> {
+                validator.validateBags(bags, listener);
+                return null;
+            });
+            var validationThread = new Thread(validation);
+            validationThread.start();
+
+            assertThat(threeStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            // the validator waits for a free slot before it takes the next bag
+            awaitWaitingForSlot(validationThread);
+            assertThat(bagsTaken.get()).isEqualTo(3);
+            assertThat(started.get()).isEqualTo(3);
+
+            release.countDown();
+            validation.get(10, TimeUnit.SECONDS);
+            assertThat(bagsTaken.get()).isEqualTo(4);
+            assertThat(started.get()).isEqualTo(4);
+            assertThat(listener.validated).hasSize(4);
+        }
+        finally {
+            release.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void validateBags_should_report_bags_that_could_not_be_validated_and_continue() throws Exception {
+        BagValidatorRule rule = path -> {
+            if (path.equals(Path.of("bad"))) {
+                throw new IOException("cannot read bag");
+            }
+            return RuleResult.ok();
+        };
+        var validator = BatchBagValidator.builder()
+            .ruleEngine(new RuleEngineImpl())
+            .rules(List.of(new NumberedRule("1.1", rule)))
+            .maxParallelBags(2)
+            .build();
+        var listener = new CollectingListener();
+
+        validator.validateBags(List.of(Path.of("good1"), Path.of("bad"), Path.of("good2")).iterator(), listener);
+
+        assertThat(listener.validated).containsOnlyKeys(Path.of("good1"), Path.of("good2"));
+        assertThat(listener.errors).containsOnlyKeys(Path.of("bad"));
+        assertThat(listener.errors.get(Path.of("bad"))).hasMessage("cannot read bag");
+    }
+
+    @Test
+    void validateBags_should_throw_before_validating_any_bag_if_rule_set_is_inconsistent() {
+        var validated = new AtomicInteger();
+        BagValidatorRule rule = path -> {
+            validated.incrementAndGet();
+            return RuleResult.ok();
+        };
+        var validator = BatchBagValidator.builder()
+            .ruleEngine(new RuleEngineImpl())
+            .rules(List.of(new NumberedRule("1.1", rule, List.of("1.1"))))
+            .build();
+
+        assertThatThrownBy(() -> validator.validateBags(List.of(Path.of("bag")).iterator(), new CollectingListener()))
+            .isInstanceOf(RuleEngineConfigurationException.class);
+        assertThat(validated.get()).isZero();
+    }
+
+    // waits until the thread is parked on a semaphore, rather than briefly on a lock of the executor
+    private static void awaitWaitingForSlot(Thread thread) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!(LockSupport.getBlocker(thread) instanceof AbstractQueuedSynchronizer blocker && blocker.getClass().getEnclosingClass() == Semaphore.class)) {
+            assertThat(System.nanoTime()).as("thread %s is waiting for a slot", thread.getName()).isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+}
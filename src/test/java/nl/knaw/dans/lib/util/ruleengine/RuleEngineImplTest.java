@@ -15,17 +15,32 @@
  */
 package nl.knaw.dans.lib.util.ruleengine;
 
+import com.codahale.metrics.MetricRegistry;
+import nl.knaw.dans.lib.util.AbstractTestWithTestDir;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
-class RuleEngineImplTest {
+class RuleEngineImplTest extends AbstractTestWithTestDir {
 
     @Test
     void validateRules_should_call_all_bag_exactly_once() throws Exception {
@@ -130,6 +145,56 @@ class RuleEngineImplTest {
 
     }
 
+    @Test
+    void validateRuleSet_should_throw_when_dependencies_are_circular() throws Exception {
+        var fakeRule = Mockito.mock(BagValidatorRule.class);
+
+        // 1.2 -> 1.3 -> 1.4 -> 1.2 can never be executed
+        var rules = List.of(
+            new NumberedRule("1.1", fakeRule),
+            new NumberedRule("1.2", fakeRule, List.of("1.1", "1.3")),
+            new NumberedRule("1.3", fakeRule, List.of("1.4")),
+            new NumberedRule("1.4", fakeRule, List.of("1.2")),
+            new NumberedRule("1.5", fakeRule, List.of("1.1")));
+
+        var engine = new RuleEngineImpl();
+
+        assertThatThrownBy(() -> engine.validateRuleSet(rules))
+            .isInstanceOf(RuleEngineConfigurationException.class)
+            .hasMessageEndingWith("1.2 -> 1.3 -> 1.4 -> 1.2");
+    }
+
+    @Test
+    void validateRuleSet_should_throw_when_rule_depends_on_itself() throws Exception {
+        var fakeRule = Mockito.mock(BagValidatorRule.class);
+
+        var rules = List.of(
+            new NumberedRule("1.1", fakeRule),
+            new NumberedRule("1.2", fakeRule, List.of("1.1", "1.2")));
+
+        var engine = new RuleEngineImpl();
+
+        assertThatThrownBy(() -> engine.validateRuleSet(rules))
+            .isInstanceOf(RuleEngineConfigurationException.class)
+            .hasMessageEndingWith("1.2 -> 1.2");
+    }
+
+    @Test
+    void validateRuleSet_should_accept_shared_dependencies_that_are_not_circular() {
+        var fakeRule = Mockito.mock(BagValidatorRule.class);
+
+        // diamond shape: 1.4 reaches 1.1 through both 1.2 and 1.3
+        var rules = List.of(
+            new NumberedRule("1.1", fakeRule),
+            new NumberedRule("1.2", fakeRule, List.of("1.1")),
+            new NumberedRule("1.3", fakeRule, List.of("1.1")),
+            new NumberedRule("1.4", fakeRule, List.of("1.2", "1.3")));
+
+        var engine = new RuleEngineImpl();
+
+        assertDoesNotThrow(() -> engine.validateRuleSet(rules));
+    }
+
     @Test
     void validateBag_should_return_exactly_3_results_when_rule_is_violated() throws Exception {
         var badResult = new RuleResult(RuleResult.Status.ERROR, List.of());
@@ -151,4 +216,366 @@ class RuleEngineImplTest {
 
         assertEquals(3, result.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void validateBag_should_pass_violations_of_failed_rule_to_result() throws Exception {
+        var violations = List.of(
+            Violation.builder().code("DDM-001").message("element not allowed here").file(Path.of("metadata/dataset.xml")).line(12).column(5).build(),
+            Violation.of("BAG-002", "missing bag-info.txt"));
+        BagValidatorRule rule = path -> RuleResult.violations(violations);
+
+        var result = new RuleEngineImpl().validateBag(Path.of("bagdir"), List.of(new NumberedRule("1.1", rule)));
+
+        assertThat(result).hasSize(1);
+        assertEquals(RuleValidationResult.RuleValidationResultStatus.FAILURE, result.get(0).getStatus());
+        assertThat(result.get(0).getViolations()).extracting(Violation::getCode).containsExactly("DDM-001", "BAG-002");
+        assertEquals("metadata/dataset.xml:12:5: element not allowed here\nmissing bag-info.txt", result.get(0).getErrorMessage());
+    }
+
+    @Test
+    void validateBag_should_wrap_error_messages_of_untyped_rule_in_violations() throws Exception {
+        BagValidatorRule rule = path -> RuleResult.error(List.of("first", "second"));
+
+        var result = new RuleEngineImpl().validateBag(Path.of("bagdir"), List.of(new NumberedRule("1.1", rule)));
+
+        assertThat(result.get(0).getViolations()).extracting(Violation::getMessage).containsExactly("first", "second");
+        assertThat(result.get(0).getViolations()).extracting(Violation::getCode).containsOnlyNulls();
+        assertEquals("first\nsecond", result.get(0).getErrorMessage());
+    }
+
+    @Test
+    void validateBag_should_pass_the_same_context_to_all_contextual_rules() throws Exception {
+        var contexts = new ArrayList<BagValidationContext>();
+        ContextualBagValidatorRule contextualRule = context -> {
+            contexts.add(context);
+            return RuleResult.ok();
+        };
+        var rules = List.of(
+            new NumberedRule("1.1", contextualRule),
+            new NumberedRule("1.2", contextualRule, List.of("1.1")));
+
+        var engine = new RuleEngineImpl();
+        engine.validateBag(Path.of("bagdir"), rules);
+
+        assertEquals(2, contexts.size());
+        assertSame(contexts.get(0), contexts.get(1));
+        assertEquals(Path.of("bagdir"), contexts.get(0).getBagDir());
+    }
+
+    @Test
+    void validateBag_should_cancel_remaining_rules_after_first_failure_when_failing_fast() throws Exception {
+        var fakeRule = Mockito.mock(BagValidatorRule.class);
+        var fakeErrorRule = Mockito.mock(BagValidatorRule.class);
+        Mockito.when(fakeRule.validate(Mockito.any())).thenReturn(RuleResult.ok());
+        Mockito.when(fakeErrorRule.validate(Mockito.any())).thenReturn(RuleResult.error("broken"));
+
+        var rules = List.of(
+            new NumberedRule("1.1", fakeRule),
+            new NumberedRule("1.2", fakeErrorRule),
+            new NumberedRule("1.3", fakeRule),
+            new NumberedRule("1.4", fakeRule, List.of("1.1")));
+
+        var engine = RuleEngineImpl.builder().evaluationPolicy(EvaluationPolicy.failFast()).build();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+
+        Mockito.verify(fakeRule, Mockito.times(1)).validate(Mockito.any());
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(
+            RuleValidationResult.RuleValidationResultStatus.SUCCESS,
+            RuleValidationResult.RuleValidationResultStatus.FAILURE,
+            RuleValidationResult.RuleValidationResultStatus.CANCELLED,
+            RuleValidationResult.RuleValidationResultStatus.CANCELLED);
+    }
+
+    @Test
+    void validateBag_should_stop_after_configured_number_of_failures() throws Exception {
+        var fakeRule = Mockito.mock(BagValidatorRule.class);
+        var fakeErrorRule = Mockito.mock(BagValidatorRule.class);
+        Mockito.when(fakeRule.validate(Mockito.any())).thenReturn(RuleResult.ok());
+        Mockito.when(fakeErrorRule.validate(Mockito.any())).thenReturn(RuleResult.error("broken"));
+
+        var rules = List.of(
+            new NumberedRule("1.1", fakeErrorRule),
+            new NumberedRule("1.2", fakeRule),
+            new NumberedRule("1.3", fakeErrorRule),
+            new NumberedRule("1.4", fakeErrorRule),
+            new NumberedRule("1.5", fakeRule));
+
+        var engine = RuleEngineImpl.builder().evaluationPolicy(EvaluationPolicy.stopAfterFailures(2)).build();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+
+        Mockito.verify(fakeErrorRule, Mockito.times(2)).validate(Mockito.any());
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(
+            RuleValidationResult.RuleValidationResultStatus.FAILURE,
+            RuleValidationResult.RuleValidationResultStatus.SUCCESS,
+            RuleValidationResult.RuleValidationResultStatus.FAILURE,
+            RuleValidationResult.RuleValidationResultStatus.CANCELLED,
+            RuleValidationResult.RuleValidationResultStatus.CANCELLED);
+    }
+
+    @Test
+    void validateBag_should_stop_after_failure_of_critical_rule_even_if_policy_runs_all() throws Exception {
+        var fakeRule = Mockito.mock(BagValidatorRule.class);
+        var fakeErrorRule = Mockito.mock(BagValidatorRule.class);
+        Mockito.when(fakeRule.validate(Mockito.any())).thenReturn(RuleResult.ok());
+        Mockito.when(fakeErrorRule.validate(Mockito.any())).thenReturn(RuleResult.error("broken"));
+
+        var rules = List.of(
+            new NumberedRule("1.1", fakeErrorRule),
+            new NumberedRule("1.2", fakeErrorRule, null, true),
+            new NumberedRule("1.3", fakeRule));
+
+        var engine = new RuleEngineImpl();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+
+        Mockito.verifyNoInteractions(fakeRule);
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(
+            RuleValidationResult.RuleValidationResultStatus.FAILURE,
+            RuleValidationResult.RuleValidationResultStatus.FAILURE,
+            RuleValidationResult.RuleValidationResultStatus.CANCELLED);
+    }
+
+    @Test
+    void validateBag_should_record_execution_time_per_rule_and_per_bag() throws Exception {
+        var fakeRule = Mockito.mock(BagValidatorRule.class);
+        Mockito.when(fakeRule.validate(Mockito.any())).thenReturn(RuleResult.ok());
+        var rules = List.of(
+            new NumberedRule("1.1", fakeRule),
+            new NumberedRule("1.2", fakeRule, List.of("1.1")));
+        var metricRegistry = new MetricRegistry();
+
+        var engine = RuleEngineImpl.builder().metricRegistry(metricRegistry).reportTimings(true).build();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+        engine.validateBag(Path.of("bagdir"), rules);
+
+        assertThat(result).extracting(RuleValidationResult::getDuration).doesNotContainNull();
+        assertThat(metricRegistry.getTimers()).containsOnlyKeys(
+            "nl.knaw.dans.lib.util.ruleengine.RuleEngine.rules.1.1",
+            "nl.knaw.dans.lib.util.ruleengine.RuleEngine.rules.1.2",
+            "nl.knaw.dans.lib.util.ruleengine.RuleEngine.bags");
+        assertThat(metricRegistry.timer("nl.knaw.dans.lib.util.ruleengine.RuleEngine.bags").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void validateBag_should_interrupt_rule_that_exceeds_rule_timeout_and_skip_its_dependents() throws Exception {
+        var neverReleased = new CountDownLatch(1);
+        var interrupted = new CountDownLatch(1);
+        BagValidatorRule hangingRule = path -> {
+            try {
+                neverReleased.await();
+            }
+            catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return RuleResult.ok();
+        };
+        var rules = List.of(
+            new NumberedRule("1.1", hangingRule),
+            new NumberedRule("1.2", path -> RuleResult.ok(), List.of("1.1")),
+            new NumberedRule("1.3", path -> RuleResult.ok()));
+
+        var engine = RuleEngineImpl.builder().ruleTimeout(Duration.ofSeconds(1)).build();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(
+            RuleValidationResult.RuleValidationResultStatus.TIMEOUT,
+            RuleValidationResult.RuleValidationResultStatus.SKIPPED,
+            RuleValidationResult.RuleValidationResultStatus.SUCCESS);
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void validateBag_should_not_count_time_waiting_for_executor_against_rule_timeout() throws Exception {
+        var neverReleased = new CountDownLatch(1);
+        var queuedRuleStarted = new CountDownLatch(1);
+        var releaseQueuedRule = new CountDownLatch(1);
+        var rules = List.of(
+            new NumberedRule("1.1", path -> {
+                neverReleased.await();
+                return RuleResult.ok();
+            }),
+            new NumberedRule("1.2", path -> {
+                // if the time in the queue counted, the timeout of this rule would have expired together with that of 1.1, and it would be interrupted here
+                queuedRuleStarted.countDown();
+                releaseQueuedRule.await();
+                return RuleResult.ok();
+            }));
+        var executorService = Executors.newFixedThreadPool(1);
+
+        try {
+            // 1.2 waits in the queue of the executor until 1.1 has been interrupted
+            var engine = RuleEngineImpl.builder().executorService(executorService).maxParallelRules(2).ruleTimeout(Duration.ofSeconds(1)).build();
+            var validation = new FutureTask<>(() -> engine.validateBag(Path.of("bagdir"), rules));
+            new Thread(validation).start();
+
+            assertThat(queuedRuleStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            releaseQueuedRule.countDown();
+            var result = validation.get(10, TimeUnit.SECONDS);
+
+            assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(
+                RuleValidationResult.RuleValidationResultStatus.TIMEOUT,
+                RuleValidationResult.RuleValidationResultStatus.SUCCESS);
+        }
+        finally {
+            releaseQueuedRule.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void validateBag_should_cancel_remaining_rules_when_bag_timeout_expires() throws Exception {
+        var neverReleased = new CountDownLatch(1);
+        BagValidatorRule hangingRule = path -> {
+            neverReleased.await();
+            return RuleResult.ok();
+        };
+        var rules = List.of(
+            new NumberedRule("1.1", path -> RuleResult.ok()),
+            new NumberedRule("1.2", hangingRule),
+            new NumberedRule("1.3", path -> RuleResult.ok()));
+
+        var engine = RuleEngineImpl.builder().bagTimeout(Duration.ofSeconds(1)).build();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(
+            RuleValidationResult.RuleValidationResultStatus.SUCCESS,
+            RuleValidationResult.RuleValidationResultStatus.TIMEOUT,
+            RuleValidationResult.RuleValidationResultStatus.CANCELLED);
+    }
+
+    @Test
+    void validateBag_should_propagate_exception_thrown_by_rule_running_on_executor() {
+        BagValidatorRule brokenRule = path -> {
+            throw new IOException("cannot read bag");
+        };
+        var rules = List.of(new NumberedRule("1.1", brokenRule));
+
+        var engine = RuleEngineImpl.builder().ruleTimeout(Duration.ofSeconds(10)).build();
+
+        assertThatThrownBy(() -> engine.validateBag(Path.of("bagdir"), rules))
+            .isInstanceOf(IOException.class)
+            .hasMessage("cannot read bag");
+    }
+
+    @Test
+    void validateBag_should_run_independent_rules_in_parallel_up_to_maxParallelRules() throws Exception {
+        // each rule waits for the other one, so this only succeeds if they run at the same time
+        var barrier = new CyclicBarrier(2);
+        BagValidatorRule waitingRule = path -> {
+            barrier.await(5, TimeUnit.SECONDS);
+            return RuleResult.ok();
+        };
+        var rules = List.of(
+            new NumberedRule("1.1", waitingRule),
+            new NumberedRule("1.2", waitingRule),
+            new NumberedRule("1.3", path -> RuleResult.ok(), List.of("1.1", "1.2")));
+
+        var engine = RuleEngineImpl.builder().maxParallelRules(2).build();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsOnly(RuleValidationResult.RuleValidationResultStatus.SUCCESS);
+    }
+
+    @Test
+    void validateBag_should_interrupt_rules_running_in_parallel_when_failing_fast() throws Exception {
+        var hangingRuleStarted = new CountDownLatch(1);
+        var neverReleased = new CountDownLatch(1);
+        var interrupted = new CountDownLatch(1);
+        BagValidatorRule hangingRule = path -> {
+            hangingRuleStarted.countDown();
+            try {
+                neverReleased.await();
+            }
+            catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return RuleResult.ok();
+        };
+        // fails only once the hanging rule is running, so that there is a running rule to interrupt
+        BagValidatorRule failingRule = path -> {
+            assertThat(hangingRuleStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            return RuleResult.error("broken");
+        };
+        var rules = List.of(
+            new NumberedRule("1.1", hangingRule),
+            new NumberedRule("1.2", failingRule));
+
+        var engine = RuleEngineImpl.builder().maxParallelRules(2).evaluationPolicy(EvaluationPolicy.failFast()).build();
+        var result = engine.validateBag(Path.of("bagdir"), rules);
+
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(
+            RuleValidationResult.RuleValidationResultStatus.CANCELLED,
+            RuleValidationResult.RuleValidationResultStatus.FAILURE);
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void validateBag_should_reuse_cached_result_while_inputs_of_rule_are_unchanged() throws Exception {
+        var bagDir = testDir.resolve("bag");
+        Files.createDirectories(bagDir.resolve("metadata"));
+        Files.writeString(bagDir.resolve("bag-info.txt"), "Created: 2024-01-01");
+        Files.writeString(bagDir.resolve("metadata/dataset.xml"), "<ddm/>");
+        var executions = new AtomicInteger();
+        var cacheableRule = new CacheableBagValidatorRule() {
+
+            @Override
+            public List<Path> getInputs() {
+                return List.of(Path.of("metadata"));
+            }
+
+            @Override
+            public RuleResult validate(Path path) {
+                executions.incrementAndGet();
+                return RuleResult.ok();
+            }
+        };
+        var rules = List.of(new NumberedRule("1.1", cacheableRule));
+        var cache = new InMemoryRuleResultCache(100);
+
+        var engine = RuleEngineImpl.builder().resultCache(cache).fingerprintMode(RuleInputFingerprint.Mode.CONTENT).build();
+        engine.validateBag(bagDir, rules);
+        Files.writeString(bagDir.resolve("bag-info.txt"), "Created: 2024-02-02"); // not an input of the rule
+        engine.validateBag(bagDir, rules);
+
+        assertEquals(1, executions.get());
+
+        Files.writeString(bagDir.resolve("metadata/dataset.xml"), "<ddm></ddm>");
+        var result = engine.validateBag(bagDir, rules);
+
+        assertEquals(2, executions.get());
+        assertEquals(2, cache.size());
+        assertThat(result).extracting(RuleValidationResult::getStatus).containsExactly(RuleValidationResult.RuleValidationResultStatus.SUCCESS);
+    }
+
+    @Test
+    void validateBag_should_not_cache_result_with_exception() throws Exception {
+        var bagDir = testDir.resolve("bag");
+        Files.createDirectories(bagDir.resolve("metadata"));
+        Files.writeString(bagDir.resolve("metadata/dataset.xml"), "<ddm/>");
+        var executions = new AtomicInteger();
+        var cacheableRule = new CacheableBagValidatorRule() {
+
+            @Override
+            public List<Path> getInputs() {
+                return List.of(Path.of("metadata"));
+            }
+
+            @Override
+            public RuleResult validate(Path path) {
+                return executions.incrementAndGet() == 1 ? RuleResult.error("Could not read dataset.xml", new IOException("Disk error")) : RuleResult.ok();
+            }
+        };
+        var rules = List.of(new NumberedRule("1.1", cacheableRule));
+        var cache = new InMemoryRuleResultCache(100);
+
+        var engine = RuleEngineImpl.builder().resultCache(cache).build();
+        var firstResult = engine.validateBag(bagDir, rules);
+        var secondResult = engine.validateBag(bagDir, rules);
+
+        assertEquals(2, executions.get());
+        assertThat(firstResult).extracting(RuleValidationResult::getStatus).containsExactly(RuleValidationResult.RuleValidationResultStatus.FAILURE);
+        assertThat(secondResult).extracting(RuleValidationResult::getStatus).containsExactly(RuleValidationResult.RuleValidationResultStatus.SUCCESS);
+        assertEquals(1, cache.size());
+    }
+}
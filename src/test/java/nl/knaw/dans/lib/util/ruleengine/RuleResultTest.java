@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2021 DANS - Data Archiving and Networked Services (info@dans.knaw.nl)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.knaw.dans.lib.util.ruleengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RuleResultTest {
+
+    @Test
+    void error_should_keep_null_messages_and_wrap_them_in_placeholder_violations() {
+        var result = RuleResult.error(Arrays.asList("first error", null));
+
+        assertThat(result.getErrorMessages()).containsExactly("first error", null);
+        assertThat(result.getViolations()).extracting(Violation::getMessage).containsExactly("first error", "(no message)");
+    }
+}